@@ -0,0 +1,281 @@
+package kilimandjaro;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AccessLog - binary log of requests.
+ * The record has a fixed size, it is written into the lock-free ring buffer
+ * without allocation and the background thread writes it to the rolling file.
+ * When the buffer is full the record is dropped, the writers never wait.
+ * <p>
+ * Format of record (big-endian, {@link #RECORD_SIZE} bytes):
+ * connection id (long), time in milliseconds (long), bytes in (int), bytes out (int),
+ * route - local port (int), status (short), reserved (short), latency in nanoseconds (long).
+ */
+public class AccessLog implements AutoCloseable {
+    public final static int RECORD_SIZE = 40;
+
+    public final static short STATUS_OK = 0;
+    public final static short STATUS_ERROR = 1;
+    public final static short STATUS_TIMEOUT = 2;
+    public final static short STATUS_BUSY = 3;
+    public final static short STATUS_ACCEPT = 4;
+
+    private final Path file;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final int mask;
+    private final ByteBuffer ring;
+    //sequence of the record which is written in the slot
+    private final AtomicLongArray published;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread drainer;
+    private volatile boolean enabled = true;
+    private volatile boolean isActive = true;
+    private FileChannel channel;
+
+    /**
+     * Constructor
+     *
+     * @param file        - path of log, the rolled files have suffix .1, .2, ...
+     * @param capacity    - number of records in the ring buffer, it is rounded up to a power of two
+     * @param maxFileSize - size of file in bytes after which it is rolled
+     * @param maxFiles    - number of rolled files which are kept
+     * @throws IOException
+     */
+    public AccessLog(Path file, int capacity, long maxFileSize, int maxFiles) throws IOException {
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = size - 1;
+        ring = ByteBuffer.allocateDirect(size * RECORD_SIZE);
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        channel = open();
+        drainer = new Thread(this::drain, "access-log");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * Switching on/off at runtime
+     *
+     * @param enabled - default is true
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return number of records which were lost because of the full buffer
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Puts the record to the ring buffer
+     *
+     * @param connectionId - id of connection
+     * @param bytesIn      - size of request
+     * @param bytesOut     - size of answer
+     * @param route        - local port of connection
+     * @param status       - see STATUS_*
+     * @param latency      - time of processing in nanoseconds
+     */
+    public void log(long connectionId, int bytesIn, int bytesOut, int route, short status, long latency) {
+        if (!enabled) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail.get() > mask) {
+                dropped.increment();
+                return;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) sequence & mask;
+        int offset = slot * RECORD_SIZE;
+        ring.putLong(offset, connectionId);
+        ring.putLong(offset + 8, System.currentTimeMillis());
+        ring.putInt(offset + 16, bytesIn);
+        ring.putInt(offset + 20, bytesOut);
+        ring.putInt(offset + 24, route);
+        ring.putShort(offset + 28, status);
+        ring.putShort(offset + 30, (short) 0);
+        ring.putLong(offset + 32, latency);
+        published.lazySet(slot, sequence);
+    }
+
+    /**
+     * Writing of the ready records to file, it is executed by the background thread
+     */
+    private void drain() {
+        ByteBuffer out = ByteBuffer.allocateDirect(1024 * RECORD_SIZE);
+        while (isActive || tail.get() < head.get()) {
+            try {
+                long sequence = tail.get();
+                while (out.remaining() >= RECORD_SIZE && published.get((int) sequence & mask) == sequence) {
+                    int offset = ((int) sequence & mask) * RECORD_SIZE;
+                    for (int i = 0; i < RECORD_SIZE; i += 8) {
+                        out.putLong(ring.getLong(offset + i));
+                    }
+                    sequence++;
+                    tail.lazySet(sequence);
+                }
+                if (out.position() == 0) {
+                    if (isActive) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                    } else if (tail.get() < head.get()) {
+                        //the record is claimed but not published yet
+                        Thread.yield();
+                    }
+                    continue;
+                }
+                out.flip();
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+                out.clear();
+                if (channel.size() >= maxFileSize) {
+                    roll();
+                }
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                out.clear();
+            }
+        }
+    }
+
+    private FileChannel open() throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * file -> file.1 -> file.2 ... the oldest file is removed
+     *
+     * @throws IOException
+     */
+    private void roll() throws IOException {
+        channel.close();
+        for (int i = maxFiles - 1; i > 0; i--) {
+            Path rolled = rolledFile(i);
+            if (Files.exists(rolled)) {
+                Files.move(rolled, rolledFile(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles > 0) {
+            Files.move(file, rolledFile(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file);
+        }
+        channel = open();
+    }
+
+    private Path rolledFile(int index) {
+        return Paths.get(file.toString() + "." + index);
+    }
+
+    /**
+     * Writes the remaining records and closes file
+     *
+     * @throws Exception
+     */
+    @Override
+    public void close() throws Exception {
+        isActive = false;
+        drainer.join();
+        channel.close();
+    }
+
+    /**
+     * Reading of the log file
+     *
+     * @param file - path of log
+     * @return records in order of writing
+     * @throws IOException
+     */
+    public static List<Record> read(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        List<Record> records = new ArrayList<>(buffer.remaining() / RECORD_SIZE);
+        while (buffer.remaining() >= RECORD_SIZE) {
+            Record record = new Record();
+            record.connectionId = buffer.getLong();
+            record.time = buffer.getLong();
+            record.bytesIn = buffer.getInt();
+            record.bytesOut = buffer.getInt();
+            record.route = buffer.getInt();
+            record.status = buffer.getShort();
+            buffer.getShort();
+            record.latency = buffer.getLong();
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * Decoded record of log
+     */
+    public static class Record {
+        private long connectionId;
+        private long time;
+        private int bytesIn;
+        private int bytesOut;
+        private int route;
+        private short status;
+        private long latency;
+
+        public long getConnectionId() {
+            return connectionId;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public int getBytesIn() {
+            return bytesIn;
+        }
+
+        public int getBytesOut() {
+            return bytesOut;
+        }
+
+        public int getRoute() {
+            return route;
+        }
+
+        public short getStatus() {
+            return status;
+        }
+
+        public long getLatency() {
+            return latency;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package kilimandjaro;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection - state of the client socket, it is attached to the selection key.
+ */
+public class Connection {
+    private final long id;
+    private final SocketChannel channel;
+    private final SocketHandler socketHandler;
+    private final int localPort;
+    private final LinkedBlockingQueue<byte[]> writingQueue = new LinkedBlockingQueue<>(1000);
+    //answers taken from the writing queue which the socket has not accepted yet, used by selector thread only
+    private ByteBuffer[] unwritten;
+    //requests waiting for the worker, see {@link WorkScheduler}
+    private final ConcurrentLinkedQueue<Frame> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile long scheduledTime;
+    //successive exceeding of the budget of script, see {@link Server#setQuarantineThreshold(int)}
+    private final AtomicInteger budgetViolations = new AtomicInteger();
+    private volatile boolean quarantined;
+
+    /**
+     * Constructor
+     *
+     * @param id            - sequence number of the connection in server
+     * @param channel       - socket of client
+     * @param socketHandler - handler of the listener which accepted the connection
+     */
+    public Connection(long id, SocketChannel channel, SocketHandler socketHandler) {
+        this.id = id;
+        this.channel = channel;
+        this.socketHandler = socketHandler;
+        localPort = channel == null ? 0 : channel.socket().getLocalPort();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    public SocketHandler getSocketHandler() {
+        return socketHandler;
+    }
+
+    /**
+     * @return port of the listener which accepted the connection, it is the route in {@link AccessLog}
+     */
+    public int getLocalPort() {
+        return localPort;
+    }
+
+    /**
+     * @return queue of answers to the client
+     */
+    public LinkedBlockingQueue<byte[]> getWritingQueue() {
+        return writingQueue;
+    }
+
+    /**
+     * @return answers which are written partially, null if there are no ones
+     */
+    ByteBuffer[] getUnwritten() {
+        return unwritten;
+    }
+
+    void setUnwritten(ByteBuffer[] unwritten) {
+        this.unwritten = unwritten;
+    }
+
+    AtomicInteger getBudgetViolations() {
+        return budgetViolations;
+    }
+
+    /**
+     * @return true - if the requests are processed in the quarantine pool
+     */
+    boolean isQuarantined() {
+        return quarantined;
+    }
+
+    void setQuarantined(boolean quarantined) {
+        this.quarantined = quarantined;
+    }
+
+    /**
+     * @return requests which are not taken by the worker yet
+     */
+    ConcurrentLinkedQueue<Frame> getInbox() {
+        return inbox;
+    }
+
+    /**
+     * @return true while the connection is in the queue of worker or it is processed
+     */
+    AtomicBoolean getScheduled() {
+        return scheduled;
+    }
+
+    long getScheduledTime() {
+        return scheduledTime;
+    }
+
+    void setScheduledTime(long scheduledTime) {
+        this.scheduledTime = scheduledTime;
+    }
+}
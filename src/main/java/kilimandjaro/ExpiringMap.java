@@ -0,0 +1,89 @@
+package kilimandjaro;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ExpiringMap - concurrent map whose entries are removed after the time of life.
+ * The expired entry is not returned even if it has not been removed yet.
+ *
+ * @param <K> type of key
+ * @param <V> type of value
+ */
+public class ExpiringMap<K, V> {
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final long ttl;
+
+    /**
+     * Constructor
+     *
+     * @param ttl - default time of life in milliseconds
+     */
+    public ExpiringMap(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.currentTimeMillis())) {
+            entries.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public void put(K key, V value) {
+        put(key, value, ttl);
+    }
+
+    /**
+     * @param key   - key
+     * @param value - value
+     * @param ttl   - time of life of the entry in milliseconds
+     */
+    public void put(K key, V value, long ttl) {
+        entries.put(key, new Entry<>(value, System.currentTimeMillis() + ttl));
+    }
+
+    public V remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        return entry == null || entry.isExpired(System.currentTimeMillis()) ? null : entry.value;
+    }
+
+    /**
+     * @return number of entries including the expired which are not removed yet
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes the expired entries
+     */
+    public void expire() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<K, Entry<V>> e : entries.entrySet()) {
+            //the entry which is put again meanwhile is not removed
+            if (e.getValue().isExpired(now)) {
+                entries.remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expireTime;
+
+        private Entry(V value, long expireTime) {
+            this.value = value;
+            this.expireTime = expireTime;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expireTime;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package kilimandjaro;
+
+/**
+ * Frame - the decoded request of client which is waiting for groovy script.
+ */
+public class Frame {
+    private final Connection connection;
+    private final byte[] data;
+    private final long receivedTime;
+    //the request is counted in the capacity of quarantine, see {@link WorkScheduler#submit(Frame)}
+    private boolean quarantined;
+
+    /**
+     * Constructor
+     *
+     * @param connection   - connection of client
+     * @param data         - decoded bytes of request
+     * @param receivedTime - {@link System#nanoTime()} of reading, 0 if it is not measured
+     */
+    public Frame(Connection connection, byte[] data, long receivedTime) {
+        this.connection = connection;
+        this.data = data;
+        this.receivedTime = receivedTime;
+    }
+
+    public Connection getConnection() {
+        return connection;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public long getReceivedTime() {
+        return receivedTime;
+    }
+
+    boolean isQuarantined() {
+        return quarantined;
+    }
+
+    void setQuarantined(boolean quarantined) {
+        this.quarantined = quarantined;
+    }
+}
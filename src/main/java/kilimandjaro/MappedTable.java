@@ -0,0 +1,166 @@
+package kilimandjaro;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * MappedTable - read-only table which is mapped into memory from the file, the data is not copied into heap.
+ * The file is UTF-8 text, every line is key and value separated by tab.
+ * Only the index of lines is kept in heap, the value is decoded on reading.
+ * For the duplicated key the first line is used. The size of file is limited to 2 Gb.
+ */
+public class MappedTable {
+    private final MappedByteBuffer buffer;
+    //open addressing: offset of line + 1, 0 - empty slot
+    private final int[] slots;
+    private final int mask;
+    private final int size;
+
+    /**
+     * Constructor
+     *
+     * @param file - path of table
+     * @throws IOException
+     */
+    public MappedTable(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("table is too large: " + file);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int lines = 0;
+        for (int i = 0; i < buffer.limit(); i++) {
+            if (buffer.get(i) == '\n') {
+                lines++;
+            }
+        }
+        int capacity = Integer.highestOneBit(Math.max(lines + 1, 2) * 2 - 1) << 1;
+        slots = new int[capacity];
+        mask = capacity - 1;
+        int count = 0;
+        int start = 0;
+        while (start < buffer.limit()) {
+            int end = find(start, buffer.limit(), '\n');
+            if (end < 0) {
+                end = buffer.limit();
+            }
+            int separator = find(start, end, '\t');
+            if (separator >= 0) {
+                int slot = hash(start, separator) & mask;
+                boolean duplicate = false;
+                while (slots[slot] != 0) {
+                    if (equalsKey(slots[slot] - 1, start, separator - start)) {
+                        duplicate = true;
+                        break;
+                    }
+                    slot = (slot + 1) & mask;
+                }
+                if (!duplicate) {
+                    slots[slot] = start + 1;
+                    count++;
+                }
+            }
+            start = end + 1;
+        }
+        size = count;
+    }
+
+    /**
+     * @param key - key
+     * @return value, null if key is absent
+     */
+    public String get(String key) {
+        byte[] bytes = getBytes(key);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param key - key
+     * @return bytes of value, null if key is absent
+     */
+    public byte[] getBytes(String key) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int hash = 1;
+        for (byte b : keyBytes) {
+            hash = 31 * hash + b;
+        }
+        int slot = spread(hash) & mask;
+        while (slots[slot] != 0) {
+            int line = slots[slot] - 1;
+            if (equalsKey(line, keyBytes)) {
+                int valueStart = line + keyBytes.length + 1;
+                int valueEnd = find(valueStart, buffer.limit(), '\n');
+                if (valueEnd < 0) {
+                    valueEnd = buffer.limit();
+                }
+                if (valueEnd > valueStart && buffer.get(valueEnd - 1) == '\r') {
+                    valueEnd--;
+                }
+                byte[] value = new byte[valueEnd - valueStart];
+                for (int i = 0; i < value.length; i++) {
+                    value[i] = buffer.get(valueStart + i);
+                }
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @return number of keys
+     */
+    public int size() {
+        return size;
+    }
+
+    private int find(int from, int to, char c) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int hash(int from, int to) {
+        int hash = 1;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        return spread(hash);
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private boolean equalsKey(int line, int otherLine, int length) {
+        if (line + length >= buffer.limit() || buffer.get(line + length) != '\t') {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(line + i) != buffer.get(otherLine + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean equalsKey(int line, byte[] key) {
+        if (line + key.length >= buffer.limit() || buffer.get(line + key.length) != '\t') {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(line + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
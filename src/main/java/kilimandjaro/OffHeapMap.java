@@ -0,0 +1,174 @@
+package kilimandjaro;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * OffHeapMap - concurrent map whose values are kept outside of heap in the large direct buffers (slabs).
+ * The value is appended to the slab, the heap keeps only the key and the packed address of value,
+ * so there are no objects of direct buffer per entry and the slabs are allocated once.
+ * The space of removed and replaced values is reused by compaction when it is more than the live values.
+ * The value is copied on put and on get, it is not larger than the slab.
+ * The reading doesn't take the lock, it is repeated under the lock if the map has been changed.
+ */
+public class OffHeapMap {
+    public final static int DEFAULT_SLAB_SIZE = 4 * 1024 * 1024;
+    //address of value (40 bits) and its length (24 bits)
+    private final static int LENGTH_BITS = 24;
+    private final static int MAX_SLAB_SIZE = (1 << LENGTH_BITS) - 1;
+
+    private final int slabSize;
+    private final ConcurrentHashMap<String, Long> entries = new ConcurrentHashMap<>();
+    private final StampedLock lock = new StampedLock();
+    //the slabs are only added, the compaction reuses them
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    //changed under the write lock
+    private long top;
+    private long used;
+
+    public OffHeapMap() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param slabSize - size of direct buffer, it limits the size of value, maximum is 16 Mb
+     */
+    public OffHeapMap(int slabSize) {
+        if (slabSize <= 0 || slabSize > MAX_SLAB_SIZE) {
+            throw new IllegalArgumentException("slab size must be from 1 to " + MAX_SLAB_SIZE);
+        }
+        this.slabSize = slabSize;
+    }
+
+    public void put(String key, byte[] value) {
+        if (value.length > slabSize) {
+            throw new IllegalArgumentException("value is larger than slab: " + value.length);
+        }
+        long stamp = lock.writeLock();
+        try {
+            long address = allocate(value.length);
+            write(address, value);
+            Long previous = entries.put(key, pack(address, value.length));
+            used += value.length;
+            if (previous != null) {
+                used -= length(previous);
+            }
+            compactIfNeeded();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public byte[] get(String key) {
+        long stamp = lock.tryOptimisticRead();
+        Long entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        byte[] value = read(entry);
+        if (lock.validate(stamp)) {
+            return value;
+        }
+        //the value could be moved by compaction
+        stamp = lock.readLock();
+        try {
+            entry = entries.get(key);
+            return entry == null ? null : read(entry);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean remove(String key) {
+        long stamp = lock.writeLock();
+        try {
+            Long previous = entries.remove(key);
+            if (previous == null) {
+                return false;
+            }
+            used -= length(previous);
+            compactIfNeeded();
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return allocated bytes of slabs
+     */
+    public long getCapacity() {
+        return (long) slabs.length * slabSize;
+    }
+
+    private long allocate(int length) {
+        long offset = top % slabSize;
+        //the value is not split between slabs
+        if (offset + length > slabSize) {
+            top += slabSize - offset;
+        }
+        int slab = (int) (top / slabSize);
+        if (slab >= slabs.length) {
+            ByteBuffer[] grown = Arrays.copyOf(slabs, slab + 1);
+            grown[slab] = ByteBuffer.allocateDirect(slabSize);
+            slabs = grown;
+        }
+        long address = top;
+        top += length;
+        return address;
+    }
+
+    private void write(long address, byte[] value) {
+        ByteBuffer slab = slabs[(int) (address / slabSize)].duplicate();
+        slab.position((int) (address % slabSize));
+        slab.put(value);
+    }
+
+    private byte[] read(long entry) {
+        long address = entry >>> LENGTH_BITS;
+        byte[] value = new byte[length(entry)];
+        ByteBuffer slab = slabs[(int) (address / slabSize)].duplicate();
+        slab.position((int) (address % slabSize));
+        slab.get(value);
+        return value;
+    }
+
+    /**
+     * Moves the live values to the beginning of slabs, it is called under the write lock
+     */
+    private void compactIfNeeded() {
+        long garbage = top - used;
+        if (garbage <= slabSize || garbage <= used) {
+            return;
+        }
+        List<Map.Entry<String, Long>> live = new ArrayList<>(entries.entrySet());
+        //the value is moved only to the lower address, so it doesn't overwrite the values which are not moved yet
+        live.sort((a, b) -> Long.compare(a.getValue(), b.getValue()));
+        top = 0;
+        for (Map.Entry<String, Long> entry : live) {
+            byte[] value = read(entry.getValue());
+            long address = allocate(value.length);
+            write(address, value);
+            entries.put(entry.getKey(), pack(address, value.length));
+        }
+    }
+
+    private static long pack(long address, int length) {
+        return address << LENGTH_BITS | length;
+    }
+
+    private static int length(long entry) {
+        return (int) (entry & MAX_SLAB_SIZE);
+    }
+}
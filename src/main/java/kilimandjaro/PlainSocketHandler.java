@@ -0,0 +1,43 @@
+package kilimandjaro;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+/**
+ * Implementation {@link SocketHandler} without encryption
+ */
+public class PlainSocketHandler implements SocketHandler {
+
+    //the handler is shared by the selector threads, every thread has own buffer
+    private final ThreadLocal<ByteBuffer> readBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(16 * 1024));
+
+    @Override
+    public boolean accept(SocketChannel socketChannel) throws IOException {
+        return true;
+    }
+
+    @Override
+    public byte[] read(SocketChannel socketChannel) throws IOException {
+        ByteBuffer buffer = readBuffer.get();
+        buffer.clear();
+        int bytesRead = socketChannel.read(buffer);
+        if (bytesRead < 0) {
+            return null;
+        }
+        return Arrays.copyOf(buffer.array(), bytesRead);
+    }
+
+    @Override
+    public boolean write(SocketChannel socketChannel, ByteBuffer[] data) throws IOException {
+        //gathering write, the socket which is not ready for all data doesn't block the selector
+        socketChannel.write(data);
+        return !data[data.length - 1].hasRemaining();
+    }
+
+    @Override
+    public void close(SocketChannel socketChannel) throws IOException {
+        socketChannel.close();
+    }
+}
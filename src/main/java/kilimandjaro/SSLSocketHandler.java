@@ -23,11 +23,12 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * SSL implementation {@link SocketHandler}
+ * SSL implementation {@link SocketHandler}.
+ * The engine and the buffers are created for every connection, so the handler can be shared
+ * by several connections and several selector threads.
  */
 public class SSLSocketHandler implements SocketHandler {
     final static Logger logger = LoggerFactory.getLogger(Server.class);
@@ -35,13 +36,9 @@ public class SSLSocketHandler implements SocketHandler {
     private String keyStoreFilePath;
     private String trustStoreFilePath;
     private String password;
-    private SSLEngine sslEngine;
-    private ByteBuffer appData;
-    private ByteBuffer netData;
-    private ByteBuffer peerAppData;
-    private ByteBuffer peerNetData;
-    private static ThreadPoolExecutor executor =
-            (ThreadPoolExecutor) Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private volatile SSLContext sslContext;
+    //state of connections after handshake, the connection is used by one selector thread
+    private final ConcurrentHashMap<SocketChannel, SSLConnection> connections = new ConcurrentHashMap<>();
 
     /**
      * the path to the private key file
@@ -73,51 +70,87 @@ public class SSLSocketHandler implements SocketHandler {
     @Override
     public boolean accept(SocketChannel socket) throws IOException {
         try {
-            sslEngine = createSSLEngine();
-            createBuffers(sslEngine);
-            sslEngine.beginHandshake();
-            return doHandshake(socket);
+            SSLConnection connection = new SSLConnection(createSSLEngine());
+            connection.sslEngine.beginHandshake();
+            if (doHandshake(socket, connection)) {
+                //the records of handshake are written
+                connection.netData.limit(0);
+                connections.put(socket, connection);
+                return true;
+            }
+            return false;
         } catch (Exception ex) {
+            socket.close();
             throw new IOException(ex);
         }
     }
 
+    @Override
+    public boolean hasBufferedInput(SocketChannel socketChannel) {
+        SSLConnection connection = connections.get(socketChannel);
+        return connection != null && connection.peerNetData.position() > 0;
+    }
+
     @Override
     public byte[] read(SocketChannel socketChannel) throws IOException {
-        return readAndDecode(socketChannel);
+        return readAndDecode(socketChannel, getConnection(socketChannel));
     }
 
     @Override
-    public void write(SocketChannel socketChannel, byte[] data) throws IOException {
-        if (data != null) {
-            //if the data size exceeds the buffer size then increases its
-            if (data.length > appData.capacity()) {
-                appData = ByteBuffer.allocate(data.length);
-            }
-            try {
-                writeAndEncode(socketChannel, data);
-            } catch (Exception e) {
-                e.printStackTrace();
+    public boolean write(SocketChannel socketChannel, ByteBuffer[] data) throws IOException {
+        SSLConnection connection = getConnection(socketChannel);
+        for (ByteBuffer appData : data) {
+            if (!writeAndEncode(socketChannel, connection, appData)) {
+                return false;
             }
         }
+        //the empty answer leaves the encoded rest of the previous write
+        return !connection.netData.hasRemaining() || flush(socketChannel, connection);
     }
 
     @Override
     public void close(SocketChannel socketChannel) throws IOException {
-        shuttingDownSSLConnection(socketChannel);
+        SSLConnection connection = connections.remove(socketChannel);
+        try {
+            if (connection != null) {
+                shuttingDownSSLConnection(socketChannel, connection);
+            }
+        } finally {
+            socketChannel.close();
+        }
     }
 
-    private void createBuffers(SSLEngine sslEngine) {
-        SSLSession session = sslEngine.getSession();
-        appData = ByteBuffer.allocate(session.getApplicationBufferSize());
-        netData = ByteBuffer.allocate(session.getPacketBufferSize());
-        peerAppData = ByteBuffer.allocate(session.getApplicationBufferSize());
-        peerNetData = ByteBuffer.allocate(session.getPacketBufferSize());
+    private SSLConnection getConnection(SocketChannel socketChannel) throws IOException {
+        SSLConnection connection = connections.get(socketChannel);
+        if (connection == null) {
+            throw new ClosedChannelException();
+        }
+        return connection;
     }
 
     private SSLEngine createSSLEngine() throws IOException, KeyStoreException,
             CertificateException, NoSuchAlgorithmException,
             UnrecoverableKeyException, KeyManagementException {
+        SSLContext sslCtx = sslContext;
+        if (sslCtx == null) {
+            synchronized (this) {
+                if (sslContext == null) {
+                    sslContext = createSSLContext();
+                }
+                sslCtx = sslContext;
+            }
+        }
+        SSLEngine sslEngine = sslCtx.createSSLEngine();
+        sslEngine.setUseClientMode(false);
+        return sslEngine;
+    }
+
+    /**
+     * The key stores are loaded once for all connections
+     */
+    private SSLContext createSSLContext() throws IOException, KeyStoreException,
+            CertificateException, NoSuchAlgorithmException,
+            UnrecoverableKeyException, KeyManagementException {
         KeyStore ks = KeyStore.getInstance("JKS");
         KeyStore ts = KeyStore.getInstance("JKS");
 
@@ -138,24 +171,19 @@ public class SSLSocketHandler implements SocketHandler {
 
         SSLContext sslCtx = SSLContext.getInstance("TLS");
         sslCtx.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
-        SSLEngine sslEngine = sslCtx.createSSLEngine();
-        sslEngine.setUseClientMode(false);
-        return sslEngine;
+        return sslCtx;
     }
 
     /**
      * Processing handshake
      *
      * @param socketChannel
+     * @param connection    - engine and buffers of connection
      * @return true - if successed
      * @throws Exception
      */
-    private boolean doHandshake(SocketChannel socketChannel) throws Exception {
-        appData.clear();
-        peerAppData.clear();
-        netData.clear();
-        peerNetData.clear();
-
+    private boolean doHandshake(SocketChannel socketChannel, SSLConnection connection) throws Exception {
+        SSLEngine sslEngine = connection.sslEngine;
         SSLEngineResult.HandshakeStatus handStatus = sslEngine.getHandshakeStatus();
 
         while (handStatus != SSLEngineResult.HandshakeStatus.FINISHED &&
@@ -164,30 +192,29 @@ public class SSLSocketHandler implements SocketHandler {
             switch (handStatus) {
 
                 case NEED_UNWRAP:
-                    if (socketChannel.read(peerNetData) < 0) {
+                    if (socketChannel.read(connection.peerNetData) < 0) {
                         if (sslEngine.isInboundDone() && sslEngine.isOutboundDone()) {
                             throw new SSLException("Connection was closed");
                         }
-                        //sslEngine.closeInbound();
                         sslEngine.closeOutbound();
                         handStatus = sslEngine.getHandshakeStatus();
                         break;
                     }
 
-                    peerNetData.flip();
-                    SSLEngineResult res = sslEngine.unwrap(peerNetData, peerAppData);
-                    peerNetData.compact();
+                    connection.peerNetData.flip();
+                    SSLEngineResult res = sslEngine.unwrap(connection.peerNetData, connection.peerAppData);
+                    //the rest (the part of record or the data after handshake) is kept for the next reading
+                    connection.peerNetData.compact();
                     handStatus = res.getHandshakeStatus();
 
                     switch (res.getStatus()) {
                         case OK:
-                            peerNetData.mark();
                             break;
                         case BUFFER_UNDERFLOW:
-                            peerNetData.clear();
+                            connection.peerNetData = handleBufferUnderflow(sslEngine, connection.peerNetData);
                             break;
                         case BUFFER_OVERFLOW:
-                            peerAppData = handleBufferOverlow(peerAppData);
+                            connection.peerAppData = handleBufferOverlow(sslEngine, connection.peerAppData);
                             break;
                         case CLOSED:
                             throw new IOException("Connection was closed");
@@ -195,14 +222,14 @@ public class SSLSocketHandler implements SocketHandler {
                     break;
 
                 case NEED_WRAP:
-                    netData.clear();
-                    res = sslEngine.wrap(appData, netData);
+                    connection.netData.clear();
+                    res = sslEngine.wrap(EMPTY, connection.netData);
                     handStatus = res.getHandshakeStatus();
                     switch (res.getStatus()) {
                         case OK:
-                            netData.flip();
-                            while (netData.hasRemaining()) {
-                                socketChannel.write(netData);
+                            connection.netData.flip();
+                            while (connection.netData.hasRemaining()) {
+                                socketChannel.write(connection.netData);
                             }
                             break;
                         case BUFFER_UNDERFLOW:
@@ -217,7 +244,7 @@ public class SSLSocketHandler implements SocketHandler {
                 case NEED_TASK:
                     Runnable task;
                     while ((task = sslEngine.getDelegatedTask()) != null) {
-                        executor.execute(task);
+                        task.run();
                     }
                     handStatus = sslEngine.getHandshakeStatus();
                     break;
@@ -235,10 +262,11 @@ public class SSLSocketHandler implements SocketHandler {
     /**
      * It increases the size of the buffer to decode the input data
      *
+     * @param sslEngine
      * @param appBuffer
      * @return a new buffer or cleaned
      */
-    private ByteBuffer handleBufferOverlow(ByteBuffer appBuffer) {
+    private ByteBuffer handleBufferOverlow(SSLEngine sslEngine, ByteBuffer appBuffer) {
         int size = sslEngine.getSession().getApplicationBufferSize();
         if (size > appBuffer.capacity()) {
             appBuffer = ByteBuffer.allocate(size);
@@ -249,86 +277,88 @@ public class SSLSocketHandler implements SocketHandler {
     }
 
     /**
-     * It increases the size of the buffer for the receiving encode data
+     * It increases the size of the buffer for the receiving encode data,
+     * the received part of record is kept
      *
-     * @param netBuffer
-     * @return a new buffer or cleaned
+     * @param sslEngine
+     * @param netBuffer - buffer in the mode of writing
+     * @return a new buffer or the same
      */
-    private ByteBuffer handleBufferUnderflow(ByteBuffer netBuffer) {
+    private ByteBuffer handleBufferUnderflow(SSLEngine sslEngine, ByteBuffer netBuffer) {
         int size = sslEngine.getSession().getPacketBufferSize();
         if (size > netBuffer.capacity()) {
             ByteBuffer cloneBuffer = ByteBuffer.allocate(size);
             netBuffer.flip();
             cloneBuffer.put(netBuffer);
             return cloneBuffer;
-        } else {
-            //the method compact does not make sense to call
-            //because a peer byte buffer is a shared between the different sockets
-            //if one socket: for later reading the previous socket must be called the method compact
-            return (ByteBuffer) netBuffer.clear();
         }
+        return netBuffer;
     }
 
     /**
      * Reading and decoding of the input data
      *
      * @param socketChannel
+     * @param connection    - engine and buffers of connection
      * @return decoded array of bytes
      * @throws IOException
      */
-    private byte[] readAndDecode(SocketChannel socketChannel) throws IOException {
+    private byte[] readAndDecode(SocketChannel socketChannel, SSLConnection connection) throws IOException {
+        SSLEngine sslEngine = connection.sslEngine;
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        peerNetData.clear();
-        int bytesRead = socketChannel.read(peerNetData);
-        if (bytesRead > 0) {
-            peerNetData.flip();
-            while (peerNetData.hasRemaining()) {
-                peerAppData.clear();
-                SSLEngineResult result = sslEngine.unwrap(peerNetData, peerAppData);
-                switch (result.getStatus()) {
-                    case OK:
-                        peerAppData.flip();
-                        bos.write(peerAppData.array());
-                        break;
-                    case BUFFER_OVERFLOW:
-                        peerAppData = handleBufferOverlow(peerAppData);
-                        break;
-                    case BUFFER_UNDERFLOW:
-                        peerNetData = handleBufferUnderflow(peerNetData);
-                        break;
-                    case CLOSED:
-                        logger.info("Received" + result.getStatus() + "during reading");
-                        throw new ClosedChannelException();
-                    default:
-                        throw new IllegalStateException("Invalid SSL status: " + result.getStatus());
-                }
+        int bytesRead = socketChannel.read(connection.peerNetData);
+        connection.peerNetData.flip();
+        boolean underflow = false;
+        while (connection.peerNetData.hasRemaining() && !underflow) {
+            connection.peerAppData.clear();
+            SSLEngineResult result = sslEngine.unwrap(connection.peerNetData, connection.peerAppData);
+            switch (result.getStatus()) {
+                case OK:
+                    connection.peerAppData.flip();
+                    bos.write(connection.peerAppData.array(), 0, connection.peerAppData.limit());
+                    break;
+                case BUFFER_OVERFLOW:
+                    connection.peerAppData = handleBufferOverlow(sslEngine, connection.peerAppData);
+                    break;
+                case BUFFER_UNDERFLOW:
+                    //the rest of record is not received yet
+                    underflow = true;
+                    break;
+                case CLOSED:
+                    logger.info("Received" + result.getStatus() + "during reading");
+                    throw new ClosedChannelException();
+                default:
+                    throw new IllegalStateException("Invalid SSL status: " + result.getStatus());
             }
         }
+        connection.peerNetData.compact();
+        if (underflow) {
+            connection.peerNetData = handleBufferUnderflow(sslEngine, connection.peerNetData);
+        }
         return bytesRead == -1 && bos.size() == 0 ? null : bos.toByteArray();
     }
 
     /**
-     * encoding and writing byte array to the client
+     * encoding and writing of answer to the client, the encoded record which is not written
+     * is kept in the buffer of connection and it is written before the next one
      *
      * @param socketChannel
-     * @param data          - encode array bytes to client
+     * @param connection    - engine and buffers of connection
+     * @param appData       - answer, its position is moved by the encoded bytes
+     * @return true - if all data was written
      * @throws IOException
      */
-    public void writeAndEncode(SocketChannel socketChannel, byte[] data) throws IOException {
-        appData.clear();
-        appData.put(data);
-        appData.flip();
+    private boolean writeAndEncode(SocketChannel socketChannel, SSLConnection connection, ByteBuffer appData)
+            throws IOException {
         while (appData.hasRemaining()) {
-            netData.clear();
-            SSLEngineResult result = sslEngine.wrap(appData, netData);
+            if (!flush(socketChannel, connection)) {
+                return false;
+            }
+            connection.netData.clear();
+            SSLEngineResult result = connection.sslEngine.wrap(appData, connection.netData);
+            connection.netData.flip();
             switch (result.getStatus()) {
                 case OK:
-                    netData.flip();
-                    int writingNumber = 0;
-                    while (netData.hasRemaining()) {
-                        writingNumber = socketChannel.write(netData);
-                    }
-                    System.out.println("Writing number = " + writingNumber);
                     break;
                 case BUFFER_OVERFLOW:
                 case BUFFER_UNDERFLOW:
@@ -339,27 +369,63 @@ public class SSLSocketHandler implements SocketHandler {
                     throw new IllegalStateException("Invalid SSL status: " + result.getStatus());
             }
         }
+        return flush(socketChannel, connection);
+    }
+
+    /**
+     * Writes the encoded data which is not written yet
+     *
+     * @return true - if the buffer is written
+     */
+    private boolean flush(SocketChannel socketChannel, SSLConnection connection) throws IOException {
+        if (connection.netData.hasRemaining()) {
+            socketChannel.write(connection.netData);
+        }
+        return !connection.netData.hasRemaining();
     }
 
     /**
-     * to close channel
+     * Sends close_notify, the channel is closed by caller
      *
      * @param channel
+     * @param connection - engine and buffers of connection
      * @throws IOException
      */
-    private void shuttingDownSSLConnection(SocketChannel channel) throws IOException {
+    private void shuttingDownSSLConnection(SocketChannel channel, SSLConnection connection) throws IOException {
+        SSLEngine sslEngine = connection.sslEngine;
         sslEngine.closeOutbound();
-        appData.clear();
-        netData.clear();
+        connection.netData.clear();
         while (!sslEngine.isOutboundDone()) {
-            SSLEngineResult res = sslEngine.wrap(appData, netData);
-            if (res.getStatus() != SSLEngineResult.Status.CLOSED) {
-                while (netData.hasRemaining()) {
-                    channel.write(netData);
-                    netData.compact();
-                }
+            SSLEngineResult res = sslEngine.wrap(EMPTY, connection.netData);
+            if (res.getStatus() == SSLEngineResult.Status.CLOSED || res.bytesProduced() == 0) {
+                break;
             }
         }
-        channel.close();
+        //the client is not waited for
+        connection.netData.flip();
+        channel.write(connection.netData);
+    }
+
+    private final static ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /**
+     * Engine and buffers of one connection
+     */
+    private static class SSLConnection {
+        private final SSLEngine sslEngine;
+        //encoded output, it is in the mode of reading between writings
+        private ByteBuffer netData;
+        private ByteBuffer peerAppData;
+        //encoded input, it is in the mode of writing between readings
+        private ByteBuffer peerNetData;
+
+        private SSLConnection(SSLEngine sslEngine) {
+            this.sslEngine = sslEngine;
+            SSLSession session = sslEngine.getSession();
+            netData = ByteBuffer.allocate(session.getPacketBufferSize());
+            netData.limit(0);
+            peerAppData = ByteBuffer.allocate(session.getApplicationBufferSize());
+            peerNetData = ByteBuffer.allocate(session.getPacketBufferSize());
+        }
     }
 }
@@ -0,0 +1,89 @@
+package kilimandjaro;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ScriptWatchdog - runtime guard of the execution time of groovy script.
+ * When the budget is exhausted the worker thread is interrupted,
+ * the script compiled with {@link groovy.transform.ThreadInterrupt} checks the flag and stops.
+ * It complements {@link groovy.transform.TimedInterrupt}, which does not see a blocked script.
+ */
+public class ScriptWatchdog implements AutoCloseable {
+
+    private ScheduledThreadPoolExecutor timer;
+
+    public ScriptWatchdog() {
+        timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+            thread.setName("script-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Begins to watch the current thread
+     *
+     * @param timeout - budget in milliseconds, 0 - without limit
+     * @return watch, must be closed after the execution of the script
+     */
+    public Watch watch(long timeout) {
+        Watch watch = new Watch(Thread.currentThread());
+        if (timeout > 0) {
+            watch.future = timer.schedule(watch::expire, timeout, TimeUnit.MILLISECONDS);
+        }
+        return watch;
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * Watching of the one execution of script
+     */
+    public static class Watch implements AutoCloseable {
+        private final Thread thread;
+        private volatile ScheduledFuture<?> future;
+        private boolean expired;
+        private boolean closed;
+
+        private Watch(Thread thread) {
+            this.thread = thread;
+        }
+
+        private synchronized void expire() {
+            if (!closed) {
+                expired = true;
+                thread.interrupt();
+            }
+        }
+
+        /**
+         * @return true - if the budget was exceeded and the thread was interrupted
+         */
+        public synchronized boolean isExpired() {
+            return expired;
+        }
+
+        /**
+         * Stops watching, the interrupted status set by the watchdog is cleared
+         * so that the worker can continue to take requests.
+         */
+        @Override
+        public synchronized void close() {
+            closed = true;
+            if (future != null) {
+                future.cancel(false);
+            }
+            if (expired) {
+                Thread.interrupted();
+            }
+        }
+    }
+}
@@ -1,32 +1,48 @@
 package kilimandjaro;
 
 import groovy.lang.Binding;
-import groovy.lang.GroovyShell;
+import groovy.lang.GroovyClassLoader;
 import groovy.lang.Script;
+import groovy.transform.ThreadInterrupt;
+import groovy.transform.TimedInterrupt;
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.expr.ClassExpression;
+import org.codehaus.groovy.ast.expr.PropertyExpression;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
+import org.codehaus.groovy.runtime.InvokerHelper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -34,6 +50,8 @@ import java.util.concurrent.atomic.AtomicReference;
  * Query processing is performed through GroovyScript,
  * Which can be dynamically updated.
  * Default sampling time on a change (modification) of script is 5 seconds.
+ * The execution time of script can be limited by a budget,
+ * connections which repeatedly exceed it are moved to the quarantine pool.
  *
  * @param <T> T type of handler for access, read, write by non-blocking sockets.
  */
@@ -41,28 +59,48 @@ public class Server<T extends SocketHandler> implements AutoCloseable {
     final static Logger logger = LoggerFactory.getLogger(Server.class);
     //for static the fragment code not will be compiled
     //although you can just call the method
-    final static public boolean DEBUG = true;
+    final static public boolean DEBUG = false;
+
+    //frames are sent to client instead of the result of script
+    final static byte[] TIMEOUT_FRAME = "ERROR: script execution timeout\n".getBytes(StandardCharsets.UTF_8);
+    final static byte[] ERROR_FRAME = "ERROR: script execution failed\n".getBytes(StandardCharsets.UTF_8);
+    final static byte[] BUSY_FRAME = "ERROR: server is busy\n".getBytes(StandardCharsets.UTF_8);
 
     private String host = "localhost";
     private int port = 8443;
+    private List<Listener> listeners = new ArrayList<>();
+    private int acceptorThreads = 1;
+    private boolean reusePort;
     private int timeoutForSelector = 1000;
     private int refreshPeriodOfGroovyScript = 5000;
-    private LinkedBlockingQueue readingQueue;
-    private Map<String, LinkedBlockingQueue> writtingQueueMap = new ConcurrentHashMap<>();
-    private ThreadPoolExecutor executor =
-            (ThreadPoolExecutor) Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private long scriptTimeout = 0;
+    private int quarantineThreshold = 3;
+    private int batchSize = 1;
+    private long batchWait = 0;
+    private int minWorkerThreads = Runtime.getRuntime().availableProcessors();
+    private int maxWorkerThreads = 2 * Runtime.getRuntime().availableProcessors();
+    private long targetQueueDelay = 1000;
+    private int readingQueueSize;
+    private WorkScheduler scheduler;
+    private AtomicLong connectionIds = new AtomicLong();
+    private AccessLog accessLog;
+    private volatile TrafficCapture trafficCapture;
+    private StateStore stateStore = new StateStore();
+    private ScriptWatchdog watchdog = new ScriptWatchdog();
+    private Set<Connection> quarantine = ConcurrentHashMap.newKeySet();
     private T socketHandler;
     private String groovyScriptPath;
-    private AtomicReference<String> groovyScript = new AtomicReference<>();
+    private AtomicReference<Class<? extends Script>> groovyScript = new AtomicReference<>();
     private FileTime lastLastModifiedTimeForGroovy;
-    private boolean isActive; //indicator of active status of server
+    private Timer timer;
+    private volatile boolean isActive; //indicator of active status of server
 
     /**
      * Host of server
      *
      * @param host - default is localhost
      */
-    private void setServerHost(String host) {
+    public void setServerHost(String host) {
         this.host = host;
     }
 
@@ -71,10 +109,43 @@ public class Server<T extends SocketHandler> implements AutoCloseable {
      *
      * @param port - default is 8443
      */
-    private void setServerPort(int port) {
+    public void setServerPort(int port) {
         this.port = port;
     }
 
+    /**
+     * Additional listening address with own handler, for example plain socket beside ssl
+     *
+     * @param host          - host of listener
+     * @param port          - port of listener
+     * @param socketHandler - see {@link SocketHandler}
+     */
+    public void addListener(String host, int port, SocketHandler socketHandler) {
+        listeners.add(new Listener(host, port, socketHandler));
+    }
+
+    /**
+     * The number of selector threads, every thread accepts, reads and writes own connections.
+     * With {@link #setReusePort(boolean)} every thread binds own socket of listener
+     * and the kernel balances the connections, otherwise the threads share the socket.
+     * The handlers of listeners are called by all threads, they must be thread-safe.
+     *
+     * @param acceptorThreads default is 1
+     */
+    public void setAcceptorThreads(int acceptorThreads) {
+        this.acceptorThreads = acceptorThreads;
+    }
+
+    /**
+     * Binding with SO_REUSEPORT, so several threads or processes listen to the same port.
+     * It needs java 9+ and the support of the operating system (Linux, BSD).
+     *
+     * @param reusePort default is false
+     */
+    public void setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+    }
+
     /**
      * The delay in obtaining the client's listening socket
      *
@@ -93,6 +164,98 @@ public class Server<T extends SocketHandler> implements AutoCloseable {
         this.refreshPeriodOfGroovyScript = refreshPeriodOfGroovyScript;
     }
 
+    /**
+     * The budget of execution time of groovy script for one request.
+     * It is compiled into the script, so it must be set before start.
+     * When the budget is exceeded the client receives the error frame.
+     *
+     * @param scriptTimeout in milliseconds, default is 0 - without limit
+     */
+    public void setScriptTimeout(long scriptTimeout) {
+        this.scriptTimeout = scriptTimeout;
+    }
+
+    /**
+     * The number of successive exceeding of the budget after which
+     * requests of connection are processed in the quarantine pool (one thread).
+     * The quarantine is released when groovy script is refreshed or the connection is closed.
+     *
+     * @param quarantineThreshold default is 3
+     */
+    public void setQuarantineThreshold(int quarantineThreshold) {
+        this.quarantineThreshold = quarantineThreshold;
+    }
+
+    /**
+     * Batch mode for the high rate of small requests.
+     * The worker takes up to batchSize ready requests (waiting for them at most batchWait)
+     * and calls groovy script once: the variable "data" is the list of requests,
+     * "socketChannels" is the list of their channels, the script returns the list of answers in the same order.
+     * If the budget of script is exceeded the whole batch gets the error frame,
+     * such clients are not quarantined because the slow request is unknown.
+     *
+     * @param batchSize - maximum number of requests in the call, default is 1 - without batch
+     * @param batchWait - waiting for the filling of batch in microseconds, default is 0
+     */
+    public void setBatchMode(int batchSize, long batchWait) {
+        this.batchSize = batchSize;
+        this.batchWait = batchWait;
+    }
+
+    /**
+     * The workers of requests, see {@link WorkScheduler}.
+     * The number of active workers is changed between min and max by the delay of requests in the queue,
+     * for the scripts which wait for the network the max can be greater than the number of processors.
+     *
+     * @param minWorkerThreads - default is number of processors
+     * @param maxWorkerThreads - default is 2 * number of processors
+     */
+    public void setWorkerThreads(int minWorkerThreads, int maxWorkerThreads) {
+        this.minWorkerThreads = minWorkerThreads;
+        this.maxWorkerThreads = maxWorkerThreads;
+    }
+
+    /**
+     * The delay of requests in the queue above which the worker is added,
+     * the worker is removed when the delay is four times less
+     *
+     * @param targetQueueDelay in microseconds, default is 1000, must be positive
+     */
+    public void setTargetQueueDelay(long targetQueueDelay) {
+        if (targetQueueDelay <= 0) {
+            throw new IllegalArgumentException("target queue delay must be positive: " + targetQueueDelay);
+        }
+        this.targetQueueDelay = targetQueueDelay;
+    }
+
+    /**
+     * The log of requests, it can be switched on/off at runtime by {@link AccessLog#setEnabled(boolean)}
+     *
+     * @param accessLog - default is null, without log
+     */
+    public void setAccessLog(AccessLog accessLog) {
+        this.accessLog = accessLog;
+    }
+
+    /**
+     * Recording of the decoded requests for replay, see {@link TrafficReplay}
+     *
+     * @param trafficCapture - default is null, without recording
+     */
+    public void setTrafficCapture(TrafficCapture trafficCapture) {
+        this.trafficCapture = trafficCapture;
+    }
+
+    /**
+     * The state shared by requests, it is available to groovy script as the variable "state".
+     * The tables of startup data should be loaded before start, see {@link StateStore#loadTable}.
+     *
+     * @return store of server
+     */
+    public StateStore getStateStore() {
+        return stateStore;
+    }
+
     /**
      * Link to access, reading, writing the handler for non-blocking sockets.
      *
@@ -107,12 +270,13 @@ public class Server<T extends SocketHandler> implements AutoCloseable {
      *
      * @param socketHandler          - see @{@link SocketHandler}
      * @param groovyScriptPath       - Controller processing client requests. Generates a byte array output to the client.
-     * @param readingCleintQueueSize - the size of the queue to the requesting client.
+     * @param readingCleintQueueSize - the size of the queue to the requesting client,
+     *                               the client gets the busy frame when it is full.
      */
     public Server(T socketHandler, String groovyScriptPath, int readingCleintQueueSize) {
         this.socketHandler = socketHandler;
         this.groovyScriptPath = groovyScriptPath;
-        readingQueue = new LinkedBlockingQueue(readingCleintQueueSize);
+        readingQueueSize = readingCleintQueueSize;
     }
 
     /**
@@ -122,72 +286,119 @@ public class Server<T extends SocketHandler> implements AutoCloseable {
      */
     public void start() throws IOException {
         logger.info("starting ...");
-        ServerSocketChannel channel = ServerSocketChannel.open();
-        channel.bind(new InetSocketAddress(host, port));
-        channel.configureBlocking(false);
-        Selector selector = Selector.open();
-
-        SelectionKey selectionKey = channel.register(selector, SelectionKey.OP_ACCEPT);
+        List<Listener> allListeners = new ArrayList<>();
+        allListeners.add(new Listener(host, port, socketHandler));
+        allListeners.addAll(listeners);
+        List<Selector> selectors = new ArrayList<>();
+        for (int i = Math.max(acceptorThreads, 1); i > 0; i--) {
+            selectors.add(Selector.open());
+        }
+        List<ServerSocketChannel> channels = new ArrayList<>();
+        for (Listener listener : allListeners) {
+            ServerSocketChannel channel = null;
+            for (Selector selector : selectors) {
+                //the kernel balances connections between the sockets bound with SO_REUSEPORT
+                if (channel == null || reusePort) {
+                    channel = bind(listener);
+                    channels.add(channel);
+                }
+                channel.register(selector, SelectionKey.OP_ACCEPT, listener.socketHandler);
+            }
+        }
 
         isActive = true;
 
         /*
-            Specifies the number of client processors equal to the number of virtual / real threads.
             The input data is transmitted to groovy script, which executes business logic and generates data to the client.
             The output array of bytes will be formed to client by the groovy script.
-            The key, or ID see getAddressKey.
+            The requests of one connection are processed in order, see {@link WorkScheduler}.
          */
-        for (int i = Runtime.getRuntime().availableProcessors(); i > 0; i--) {
-            executor.execute(() -> {
-                while (!Thread.interrupted() && isActive) {
-                    try {
-                        SelectionKey key = (SelectionKey) readingQueue.take();
-                        SocketChannel socketChannel = (SocketChannel) key.channel();
-                        String address = getAddressKey((InetSocketAddress) socketChannel.getRemoteAddress());
-                        LinkedBlockingQueue writingQueue = writtingQueueMap.get(address);
-                        if (writingQueue == null) {
-                            synchronized (writtingQueueMap) {
-                                if (!writtingQueueMap.containsKey(address)) {
-                                    writingQueue = new LinkedBlockingQueue(1000);
-                                    writtingQueueMap.put(address, writingQueue);
-                                } else {
-                                    writingQueue = writtingQueueMap.get(address);
-                                }
-                            }
-                        }
-                        byte[] data = (byte[]) key.attachment();
-
-                        Binding binding = new Binding();
-                        binding.setVariable("data", data);
-                        binding.setVariable("socketChannel", socketChannel);
-                        GroovyShell shell = new GroovyShell(binding);
-                        Script script = shell.parse(groovyScript.get());
-                        script.setBinding(binding);
-                        byte[] result = (byte[]) script.run();
-                        writingQueue.put(result);
-                    } catch (InterruptedException | IOException ex) {
-                        ex.printStackTrace();
-                    }
-                }
-            });
-        }
+        scheduler = new WorkScheduler(minWorkerThreads, maxWorkerThreads, readingQueueSize, this::processFrames);
+        scheduler.setBatchMode(batchSize, batchWait);
+        scheduler.setTargetDelay(targetQueueDelay);
+        scheduler.start();
 
         refreshGroovyScript();
-        //timer update script
-        Timer timer = new Timer();
+        //timer update script and removes the expired state
+        timer = new Timer(true);
         timer.schedule(new TimerTask() {
             @Override
             public void run() {
                 try {
                     refreshGroovyScript();
-                } catch (IOException e) {
+                } catch (Exception e) {
                     e.printStackTrace();
                 }
+                stateStore.expire();
             }
         }, refreshPeriodOfGroovyScript, refreshPeriodOfGroovyScript);
 
-        while (!Thread.interrupted()) {
-            while (selectionKey.selector().select(timeoutForSelector) > 0) {
+        List<Thread> selectorThreads = new ArrayList<>();
+        for (int i = 1; i < selectors.size(); i++) {
+            Selector selector = selectors.get(i);
+            Thread thread = new Thread(() -> {
+                try {
+                    select(selector);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "selector-" + i);
+            thread.start();
+            selectorThreads.add(thread);
+        }
+        select(selectors.get(0));
+        for (Thread thread : selectorThreads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (ServerSocketChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Binds the listening socket
+     *
+     * @param listener - address and handler
+     * @return non-blocking channel
+     * @throws IOException
+     */
+    private ServerSocketChannel bind(Listener listener) throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        if (reusePort) {
+            channel.setOption(getReusePortOption(), true);
+        }
+        channel.bind(new InetSocketAddress(listener.host, listener.port));
+        channel.configureBlocking(false);
+        return channel;
+    }
+
+    /**
+     * StandardSocketOptions.SO_REUSEPORT appeared in java 9, the code is compiled for java 8
+     *
+     * @return socket option
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> getReusePortOption() {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new UnsupportedOperationException("SO_REUSEPORT needs java 9+", e);
+        }
+    }
+
+    /**
+     * The loop of selector: accepting, reading and writing of sockets
+     *
+     * @param selector - selector with the registered listening sockets
+     * @throws IOException
+     */
+    private void select(Selector selector) throws IOException {
+        while (!Thread.interrupted() && isActive) {
+            while (isActive && selector.select(timeoutForSelector) > 0) {
                 Set readyKeys = selector.selectedKeys();
                 Iterator it = readyKeys.iterator();
                 while (it.hasNext()) {
@@ -197,44 +408,367 @@ public class Server<T extends SocketHandler> implements AutoCloseable {
                         if (key.isAcceptable()) {
                             ServerSocketChannel ssc = (ServerSocketChannel) key.channel();
                             SocketChannel socket = ssc.accept();
+                            //the other selector has accepted it
+                            if (socket == null) {
+                                continue;
+                            }
                             socket.configureBlocking(false);
-                            if (socketHandler.accept(socket)) {
-                                socket.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                            SocketHandler handler = (SocketHandler) key.attachment();
+                            if (handler.accept(socket)) {
+                                Connection connection =
+                                        new Connection(connectionIds.incrementAndGet(), socket, handler);
+                                SelectionKey connectionKey = socket.register(selector,
+                                        SelectionKey.OP_READ | SelectionKey.OP_WRITE, connection);
+                                if (accessLog != null && accessLog.isEnabled()) {
+                                    accessLog.log(connection.getId(), 0, 0, connection.getLocalPort(),
+                                            AccessLog.STATUS_ACCEPT, 0);
+                                }
                                 if (DEBUG) logger.debug("accept socket: " + socket.getRemoteAddress());
-                            }
-                        }
-                        if (key.isReadable()) {
-                            byte[] bytes = socketHandler.read((SocketChannel) key.channel());
-                            if (bytes != null && bytes.length > 0) {
-                                key.attach(bytes);
-                                readingQueue.put(key);
-                                if (DEBUG) {
-                                    logger.debug("read socket: " + ((SocketChannel) key.channel()).socket()
-                                            .getRemoteSocketAddress());
+                                //the request received with the handshake doesn't wake the selector again
+                                if (handler.hasBufferedInput(socket)) {
+                                    read(connectionKey, connection);
                                 }
-                            } else if (bytes == null) {
-                                continue;
+                            } else {
+                                socket.close();
                             }
+                            continue;
+                        }
+                        if (key.isReadable() && !read(key, (Connection) key.attachment())) {
+                            continue;
                         }
                         if (key.isWritable()) {
-                            SocketChannel socketChannel = ((SocketChannel) key.channel());
-                            String address = getAddressKey((InetSocketAddress) socketChannel.getRemoteAddress());
-                            LinkedBlockingQueue writtingQueue = writtingQueueMap.get(address);
-                            byte[] data = writtingQueue == null ? null : (byte[]) writtingQueue.poll();
+                            Connection connection = (Connection) key.attachment();
+                            //the new answers are taken when the previous ones are written
+                            ByteBuffer[] data = connection.getUnwritten();
+                            if (data == null) {
+                                data = pollAnswers(connection.getWritingQueue());
+                            }
                             if (data != null) {
-                                socketHandler.write(socketChannel, data);
+                                boolean written = connection.getSocketHandler().write(connection.getChannel(), data);
+                                connection.setUnwritten(written ? null : data);
                                 if (DEBUG) {
-                                    logger.debug("write socket: " + ((SocketChannel) key.channel()).socket()
+                                    logger.debug("write socket: " + connection.getChannel().socket()
                                             .getRemoteSocketAddress());
                                 }
                             }
                         }
+                    } catch (IOException ex) {
+                        //the connection is broken, for example it is reset by the client
+                        if (key.attachment() instanceof Connection) {
+                            closeConnection(key);
+                            if (DEBUG) logger.debug("connection is closed", ex);
+                        } else {
+                            ex.printStackTrace();
+                        }
                     } catch (Exception ex) {
                         ex.printStackTrace();
                     }
                 }
             }
         }
+        selector.close();
+    }
+
+    /**
+     * Appends the request to the capture, the failure of capture (for example the disk is full)
+     * switches it off, but the request is processed
+     *
+     * @param connection - connection of client
+     * @param bytes      - request
+     */
+    private void capture(Connection connection, byte[] bytes) {
+        TrafficCapture trafficCapture = this.trafficCapture;
+        if (trafficCapture == null) {
+            return;
+        }
+        try {
+            trafficCapture.append(connection.getId(), bytes);
+        } catch (IOException | RuntimeException ex) {
+            this.trafficCapture = null;
+            logger.error("traffic capture failed, it is switched off", ex);
+        }
+    }
+
+    /**
+     * Takes all ready answers, so they are written at once
+     *
+     * @param writingQueue - queue of answers of connection
+     * @return answers or null if the queue is empty
+     */
+    private static ByteBuffer[] pollAnswers(LinkedBlockingQueue<byte[]> writingQueue) {
+        byte[] data = writingQueue.poll();
+        if (data == null) {
+            return null;
+        }
+        if (writingQueue.isEmpty()) {
+            return new ByteBuffer[]{ByteBuffer.wrap(data)};
+        }
+        List<byte[]> answers = new ArrayList<>();
+        answers.add(data);
+        writingQueue.drainTo(answers);
+        ByteBuffer[] buffers = new ByteBuffer[answers.size()];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(answers.get(i));
+        }
+        return buffers;
+    }
+
+    /**
+     * Reading of request and its submitting to the scheduler
+     *
+     * @param key        - key of connection
+     * @param connection - connection of client
+     * @return false - if the client closed connection
+     * @throws IOException
+     */
+    private boolean read(SelectionKey key, Connection connection) throws IOException {
+        byte[] bytes = connection.getSocketHandler().read(connection.getChannel());
+        if (bytes == null) {
+            //the client closed connection
+            key.cancel();
+            quarantine.remove(connection);
+            connection.getSocketHandler().close(connection.getChannel());
+            return false;
+        }
+        if (bytes.length > 0) {
+            if (trafficCapture != null) {
+                capture(connection, bytes);
+            }
+            Frame frame = new Frame(connection, bytes,
+                    accessLog != null && accessLog.isEnabled() ? System.nanoTime() : 0);
+            //the quarantined connection is processed by the quarantine worker of scheduler
+            if (!scheduler.submit(frame)) {
+                //the selector must not wait for the workers
+                connection.getWritingQueue().offer(BUSY_FRAME);
+                logAccess(frame, BUSY_FRAME, AccessLog.STATUS_BUSY);
+            }
+            if (DEBUG) {
+                logger.debug("read socket: " + connection.getChannel().socket()
+                        .getRemoteSocketAddress());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Closing of the broken connection, the handler releases the state of connection
+     *
+     * @param key - key of connection
+     */
+    private void closeConnection(SelectionKey key) {
+        key.cancel();
+        Connection connection = (Connection) key.attachment();
+        quarantine.remove(connection);
+        try {
+            connection.getSocketHandler().close(connection.getChannel());
+        } catch (IOException ex) {
+            if (DEBUG) logger.debug("closing of connection failed", ex);
+        } finally {
+            try {
+                key.channel().close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Processing of the requests taken by the worker of {@link WorkScheduler}
+     *
+     * @param frames - requests of one connection or the batch
+     */
+    private void processFrames(List<Frame> frames) {
+        try {
+            if (batchSize > 1) {
+                processBatch(frames);
+            } else {
+                for (Frame frame : frames) {
+                    try {
+                        processFrame(frame);
+                    } catch (RuntimeException ex) {
+                        //the next requests of connection are processed and every request is answered
+                        logger.error("processing of request failed", ex);
+                        frame.getConnection().getWritingQueue().offer(ERROR_FRAME);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            //the server is closed
+            if (isActive) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Execution of groovy script for one request
+     *
+     * @param frame - request
+     * @throws InterruptedException
+     */
+    private void processFrame(Frame frame) throws InterruptedException {
+        SocketChannel socketChannel = frame.getConnection().getChannel();
+
+        Binding binding = new Binding();
+        binding.setVariable("data", frame.getData());
+        binding.setVariable("socketChannel", socketChannel);
+        binding.setVariable("state", stateStore);
+        byte[] result;
+        short status = AccessLog.STATUS_OK;
+        try (ScriptWatchdog.Watch watch = watchdog.watch(scriptTimeout)) {
+            try {
+                //the initialization of script can fail too, the request is answered anyway
+                Script script = InvokerHelper.createScript(groovyScript.get(), binding);
+                Object value = script.run();
+                if (!(value instanceof byte[])) {
+                    throw new IllegalStateException("groovy script must return byte[], but returned " + value);
+                }
+                result = (byte[]) value;
+                if (frame.getConnection().getBudgetViolations().get() != 0) {
+                    frame.getConnection().getBudgetViolations().set(0);
+                }
+            } catch (Exception ex) {
+                if (watch.isExpired() || ex instanceof TimeoutException) {
+                    result = TIMEOUT_FRAME;
+                    status = AccessLog.STATUS_TIMEOUT;
+                    registerBudgetViolation(frame.getConnection());
+                } else {
+                    logger.error("groovy script failed", ex);
+                    result = ERROR_FRAME;
+                    status = AccessLog.STATUS_ERROR;
+                }
+            }
+        }
+        frame.getConnection().getWritingQueue().put(result);
+        logAccess(frame, result, status);
+    }
+
+    /**
+     * Execution of groovy script for the list of requests
+     *
+     * @param batch - requests
+     * @throws InterruptedException
+     */
+    private void processBatch(List<Frame> batch) throws InterruptedException {
+        List<byte[]> data = new ArrayList<>(batch.size());
+        List<SocketChannel> socketChannels = new ArrayList<>(batch.size());
+        for (Frame frame : batch) {
+            data.add(frame.getData());
+            socketChannels.add(frame.getConnection().getChannel());
+        }
+
+        Binding binding = new Binding();
+        binding.setVariable("data", data);
+        binding.setVariable("socketChannels", socketChannels);
+        binding.setVariable("state", stateStore);
+        List<?> results = null;
+        byte[] failure = null;
+        short status = AccessLog.STATUS_OK;
+        try (ScriptWatchdog.Watch watch = watchdog.watch(scriptTimeout)) {
+            try {
+                Script script = InvokerHelper.createScript(groovyScript.get(), binding);
+                Object value = script.run();
+                if (!(value instanceof List)) {
+                    throw new IllegalStateException("groovy script must return List in batch mode, but returned " + value);
+                }
+                //the list of script is read in the guarded block
+                results = new ArrayList<>((List<?>) value);
+            } catch (Exception ex) {
+                if (watch.isExpired() || ex instanceof TimeoutException) {
+                    failure = TIMEOUT_FRAME;
+                    status = AccessLog.STATUS_TIMEOUT;
+                } else {
+                    logger.error("groovy script failed", ex);
+                    failure = ERROR_FRAME;
+                    status = AccessLog.STATUS_ERROR;
+                }
+            }
+        }
+        int invalid = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Frame frame = batch.get(i);
+            byte[] result = failure;
+            short frameStatus = status;
+            if (failure == null) {
+                Object answer = i < results.size() ? results.get(i) : null;
+                if (answer instanceof byte[]) {
+                    result = (byte[]) answer;
+                } else {
+                    //the script has not returned the answer
+                    invalid++;
+                    result = ERROR_FRAME;
+                    frameStatus = AccessLog.STATUS_ERROR;
+                }
+            }
+            frame.getConnection().getWritingQueue().put(result);
+            logAccess(frame, result, frameStatus);
+        }
+        if (invalid > 0) {
+            logger.error("groovy script has not returned byte[] for " + invalid + " of " + batch.size() + " requests");
+        }
+    }
+
+    /**
+     * Counts exceeding of budget, the connection is quarantined when the threshold is reached
+     *
+     * @param connection - connection of client
+     */
+    private void registerBudgetViolation(Connection connection) {
+        if (connection.getBudgetViolations().incrementAndGet() >= quarantineThreshold && !connection.isQuarantined()) {
+            connection.setQuarantined(true);
+            quarantine.add(connection);
+            //the connection closed meanwhile is not kept
+            if (!connection.getChannel().isOpen()) {
+                quarantine.remove(connection);
+                return;
+            }
+            //the address is taken without exception, the connection can be closed meanwhile
+            logger.warn("quarantine: connection " + connection.getId() + " "
+                    + connection.getChannel().socket().getRemoteSocketAddress());
+        }
+    }
+
+    /**
+     * Writes the record of request to access log if it is switched on
+     *
+     * @param frame  - request
+     * @param result - answer
+     * @param status - see {@link AccessLog}
+     */
+    private void logAccess(Frame frame, byte[] result, short status) {
+        AccessLog accessLog = this.accessLog;
+        if (accessLog != null && accessLog.isEnabled()) {
+            Connection connection = frame.getConnection();
+            accessLog.log(connection.getId(), frame.getData().length, result == null ? 0 : result.length,
+                    connection.getLocalPort(), status,
+                    frame.getReceivedTime() == 0 ? 0 : System.nanoTime() - frame.getReceivedTime());
+        }
+    }
+
+    /**
+     * Compiles groovy script.
+     * If the budget is defined, the script is interrupted by itself on the expiration of time
+     * and also checks the interrupted status of thread which is set by {@link ScriptWatchdog}.
+     *
+     * @param text    - source of script
+     * @param timeout - budget in milliseconds, 0 - without limit
+     * @return class of script
+     */
+    @SuppressWarnings("unchecked")
+    static Class<? extends Script> compileGroovyScript(String text, long timeout) {
+        CompilerConfiguration configuration = new CompilerConfiguration();
+        if (timeout > 0) {
+            Map<String, Object> parameters = new HashMap<>();
+            parameters.put("value", timeout);
+            //the value of enum is passed to annotation as expression
+            parameters.put("unit", new PropertyExpression(
+                    new ClassExpression(ClassHelper.make(TimeUnit.class)), TimeUnit.MILLISECONDS.name()));
+            configuration.addCompilationCustomizers(
+                    new ASTTransformationCustomizer(parameters, TimedInterrupt.class),
+                    new ASTTransformationCustomizer(ThreadInterrupt.class));
+        }
+        GroovyClassLoader classLoader = new GroovyClassLoader(Server.class.getClassLoader(), configuration);
+        return (Class<? extends Script>) classLoader.parseClass(text);
     }
 
     /**
@@ -254,7 +788,13 @@ public class Server<T extends SocketHandler> implements AutoCloseable {
             if (readBytes != out.size()) {
                 throw new IOException("reading size of file not equal in buffer");
             }
-            groovyScript.set(new String(out.toByteArray(), "UTF-8"));
+            groovyScript.set(compileGroovyScript(new String(out.toByteArray(), "UTF-8"), scriptTimeout));
+            //the new version of script can be faster
+            for (Connection connection : quarantine) {
+                connection.setQuarantined(false);
+                connection.getBudgetViolations().set(0);
+            }
+            quarantine.clear();
             if (DEBUG) logger.debug("refresh groovy");
         }
     }
@@ -267,15 +807,27 @@ public class Server<T extends SocketHandler> implements AutoCloseable {
     @Override
     public void close() throws Exception {
         isActive = false;
+        watchdog.close();
+        if (scheduler != null) {
+            scheduler.close();
+        }
+        if (timer != null) {
+            timer.cancel();
+        }
     }
 
     /**
-     * key of client address
-     *
-     * @param address InetSocketAddress
-     * @return String format: {host}:{port}
+     * Listening address and its handler
      */
-    private String getAddressKey(InetSocketAddress address) {
-        return address.getHostName() + ":" + address.getPort();
+    private static class Listener {
+        private final String host;
+        private final int port;
+        private final SocketHandler socketHandler;
+
+        private Listener(String host, int port, SocketHandler socketHandler) {
+            this.host = host;
+            this.port = port;
+            this.socketHandler = socketHandler;
+        }
     }
 }
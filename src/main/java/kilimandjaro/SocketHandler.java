@@ -1,10 +1,15 @@
 package kilimandjaro;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 
 /**
- * The strategy of reading, write access for non-blocking sockets
+ * The strategy of reading, write access for non-blocking sockets.
+ * The handler of listener is shared by all connections accepted by it, with several acceptor threads
+ * (see {@link Server#setAcceptorThreads(int)}) it is called by them at the same time, so it must be thread-safe.
+ * The state of one connection (for example the session of SSL) is kept per channel,
+ * the channel is used by one selector thread only.
  */
 public interface SocketHandler {
 
@@ -17,6 +22,17 @@ public interface SocketHandler {
      */
     boolean accept(SocketChannel socketChannel) throws IOException;
 
+    /**
+     * The data was received from the socket but it is not returned by {@link #read(SocketChannel)} yet,
+     * for example the request which was sent with the end of handshake
+     *
+     * @param socketChannel
+     * @return true - if the read must be called without waiting for the socket
+     */
+    default boolean hasBufferedInput(SocketChannel socketChannel) {
+        return false;
+    }
+
     /**
      * Reading data from socket
      *
@@ -27,13 +43,16 @@ public interface SocketHandler {
     byte[] read(SocketChannel socketChannel) throws IOException;
 
     /**
-     * Write an array of bytes received by the client
+     * Write the answers of the client as far as the socket accepts them without blocking.
+     * The position of every buffer is moved by the written bytes, the rest is written
+     * on the next readiness of the socket.
      *
      * @param socketChannel - recording channel
-     * @param data          - byte array was generated for the client as a result of its request
+     * @param data          - answers in order of sending, the implementation can join them in one write
+     * @return true - if all data was written
      * @throws IOException
      */
-    void write(SocketChannel socketChannel, byte[] data) throws IOException;
+    boolean write(SocketChannel socketChannel, ByteBuffer[] data) throws IOException;
 
     /**
      * Closing the connection with client
@@ -0,0 +1,92 @@
+package kilimandjaro;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StateStore - state which is shared between requests and survives the refresh of groovy script.
+ * It is available to the script by the variable "state" of binding, for example:
+ * <pre>
+ * state.counter("requests").increment()
+ * state.map("sessions").put(id, session)
+ * state.expiringMap("tokens", 60000).get(token)
+ * state.table("tariffs").get(code)
+ * </pre>
+ * All structures are created by name on the first call, the reading is without locks.
+ */
+public class StateStore {
+    private final ConcurrentMap<String, ConcurrentMap<?, ?>> maps = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ExpiringMap<?, ?>> expiringMaps = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, OffHeapMap> offHeapMaps = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, MappedTable> tables = new ConcurrentHashMap<>();
+
+    /**
+     * @param name - name of map
+     * @return concurrent map on heap
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> ConcurrentMap<K, V> map(String name) {
+        return (ConcurrentMap<K, V>) maps.computeIfAbsent(name, k -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * @param name - name of map
+     * @param ttl  - default time of life of entry in milliseconds, it is used when the map is created
+     * @return map with expiration of entries
+     */
+    @SuppressWarnings("unchecked")
+    public <K, V> ExpiringMap<K, V> expiringMap(String name, long ttl) {
+        return (ExpiringMap<K, V>) expiringMaps.computeIfAbsent(name, k -> new ExpiringMap<>(ttl));
+    }
+
+    /**
+     * @param name - name of map
+     * @return map whose values are kept outside of heap
+     */
+    public OffHeapMap offHeapMap(String name) {
+        return offHeapMaps.computeIfAbsent(name, k -> new OffHeapMap());
+    }
+
+    /**
+     * @param name - name of counter
+     * @return striped counter for the frequent updates
+     */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    /**
+     * @param name - name of table
+     * @return table which was loaded by {@link #loadTable(String, Path)}, null if it is absent
+     */
+    public MappedTable table(String name) {
+        return tables.get(name);
+    }
+
+    /**
+     * Maps the file of table into memory, usually at the start of server
+     *
+     * @param name - name of table
+     * @param file - see {@link MappedTable}
+     * @return table
+     * @throws IOException
+     */
+    public MappedTable loadTable(String name, Path file) throws IOException {
+        MappedTable table = new MappedTable(file);
+        tables.put(name, table);
+        return table;
+    }
+
+    /**
+     * Removes the expired entries, it is called by the timer of server
+     */
+    public void expire() {
+        for (ExpiringMap<?, ?> map : expiringMaps.values()) {
+            map.expire();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package kilimandjaro;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TrafficCapture - recording of the decoded requests for replay, see {@link TrafficReplay}.
+ * Records are appended to the memory-mapped file, the file is mapped by chunks.
+ * <p>
+ * Format of record (big-endian): length of data (int), connection id (long),
+ * time from the start of capture in nanoseconds (long), data.
+ * The record with zero length is the end of file.
+ */
+public class TrafficCapture implements AutoCloseable {
+    public final static int HEADER_SIZE = 20;
+    public final static int DEFAULT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final int chunkSize;
+    private final long startTime = System.nanoTime();
+    private MappedByteBuffer chunk;
+    private long chunkPosition;
+    private boolean closed;
+
+    /**
+     * Constructor, chunk is 64 Mb
+     *
+     * @param file - path of capture, the existing file is overwritten
+     * @throws IOException
+     */
+    public TrafficCapture(Path file) throws IOException {
+        this(file, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param file      - path of capture, the existing file is overwritten
+     * @param chunkSize - size of the mapped region of file
+     * @throws IOException
+     */
+    public TrafficCapture(Path file, int chunkSize) throws IOException {
+        this.chunkSize = chunkSize;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        chunk = channel.map(FileChannel.MapMode.READ_WRITE, 0, chunkSize);
+    }
+
+    /**
+     * Appends the request, it is ignored after closing
+     *
+     * @param connectionId - id of connection
+     * @param data         - decoded request
+     * @throws IOException
+     */
+    public synchronized void append(long connectionId, byte[] data) throws IOException {
+        //the region of chunk can be after the end of truncated file
+        if (closed) {
+            return;
+        }
+        int size = HEADER_SIZE + data.length;
+        //the next record must have place for the end mark
+        if (chunk.remaining() < size + 4) {
+            chunkPosition += chunk.position();
+            chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkPosition, Math.max(chunkSize, size + 4));
+        }
+        chunk.putInt(data.length);
+        chunk.putLong(connectionId);
+        chunk.putLong(System.nanoTime() - startTime);
+        chunk.put(data);
+    }
+
+    /**
+     * Cuts the unused tail of file and closes it
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        long size = chunkPosition + chunk.position();
+        chunk.force();
+        channel.truncate(size);
+        channel.close();
+    }
+
+    /**
+     * Reading of the capture, chunk is 64 Mb
+     *
+     * @param file - path of capture
+     * @return records in order of appending
+     * @throws IOException
+     */
+    public static List<Record> read(Path file) throws IOException {
+        return read(file, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Reading of the capture, the file is mapped by chunks, so its size is not limited by one mapping
+     *
+     * @param file      - path of capture
+     * @param chunkSize - size of the mapped region of file, the larger record is mapped whole
+     * @return records in order of appending
+     * @throws IOException
+     */
+    public static List<Record> read(Path file, int chunkSize) throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            long chunkPosition = 0;
+            MappedByteBuffer buffer = map(channel, chunkPosition, chunkSize, fileSize);
+            while (true) {
+                if (buffer.remaining() < HEADER_SIZE) {
+                    chunkPosition += buffer.position();
+                    if (fileSize - chunkPosition < HEADER_SIZE) {
+                        break;
+                    }
+                    buffer = map(channel, chunkPosition, chunkSize, fileSize);
+                }
+                int length = buffer.getInt(buffer.position());
+                if (length <= 0) {
+                    break;
+                }
+                //the record is not split between chunks
+                if (buffer.remaining() < HEADER_SIZE + (long) length) {
+                    chunkPosition += buffer.position();
+                    buffer = map(channel, chunkPosition, Math.max(chunkSize, HEADER_SIZE + (long) length), fileSize);
+                    if (buffer.remaining() < HEADER_SIZE + (long) length) {
+                        //the file is truncated
+                        break;
+                    }
+                }
+                buffer.getInt();
+                Record record = new Record();
+                record.connectionId = buffer.getLong();
+                record.time = buffer.getLong();
+                record.data = new byte[length];
+                buffer.get(record.data);
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long position, long size, long fileSize)
+            throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size, fileSize - position));
+    }
+
+    /**
+     * Captured request
+     */
+    public static class Record {
+        private long connectionId;
+        private long time;
+        private byte[] data;
+
+        public long getConnectionId() {
+            return connectionId;
+        }
+
+        /**
+         * @return time from the start of capture in nanoseconds
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package kilimandjaro;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TrafficReplay - sends the requests recorded by {@link TrafficCapture} to the server
+ * with the same connections and intervals. The speed is 1x, Nx or the maximum.
+ * It is supposed that every request gets one answer, the next request of connection
+ * is sent after the answer to the previous one. The capture doesn't keep the answers,
+ * so the answer is found by its size (see {@link #setAnswerSize(int)}), without it every received
+ * chunk of bytes is taken for one answer and the answer larger than one read of socket is counted several times.
+ * If the answer is not received in time
+ * the request is counted as lost and the connection is opened again,
+ * so the late answer is not taken for the answer to the next request.
+ * <p>
+ * Usage: TrafficReplay capture-file script [other-script] [speed: 1, N or max]
+ * The local server is started for each script and the results are compared.
+ */
+public class TrafficReplay {
+    private final List<TrafficCapture.Record> records;
+    private String host = "localhost";
+    private int port = 8443;
+    private double speed = 1;
+    private long responseTimeout = 5000;
+    private int answerSize;
+
+    /**
+     * Constructor
+     *
+     * @param records - see {@link TrafficCapture#read(java.nio.file.Path)}
+     */
+    public TrafficReplay(List<TrafficCapture.Record> records) {
+        this.records = records;
+    }
+
+    /**
+     * Address of server
+     *
+     * @param host - default is localhost
+     * @param port - default is 8443
+     */
+    public void setServerAddress(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Multiplier of the recorded speed
+     *
+     * @param speed - default is 1, 0 - the requests are sent without pauses
+     */
+    public void setSpeed(double speed) {
+        this.speed = speed;
+    }
+
+    /**
+     * The waiting of answer to the request before the next request is sent
+     *
+     * @param responseTimeout in milliseconds, default is 5000
+     */
+    public void setResponseTimeout(long responseTimeout) {
+        this.responseTimeout = responseTimeout;
+    }
+
+    /**
+     * The size of every answer of the server, for example the size of the fixed frame of protocol
+     *
+     * @param answerSize in bytes, default is 0 - every read of socket is one answer
+     */
+    public void setAnswerSize(int answerSize) {
+        this.answerSize = answerSize;
+    }
+
+    /**
+     * Sends the requests and measures the latency of answers
+     *
+     * @return result of replay
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public Result replay() throws IOException, InterruptedException {
+        Map<Long, List<TrafficCapture.Record>> connectionRecords = new LinkedHashMap<>();
+        for (TrafficCapture.Record record : records) {
+            connectionRecords.computeIfAbsent(record.getConnectionId(), k -> new ArrayList<>()).add(record);
+        }
+        AtomicLong lastAnswerTime = new AtomicLong();
+        long firstTime = records.isEmpty() ? 0 : records.get(0).getTime();
+        long start = System.nanoTime();
+        List<ReplayConnection> connections = new ArrayList<>();
+        for (List<TrafficCapture.Record> recordsOfConnection : connectionRecords.values()) {
+            ReplayConnection connection = new ReplayConnection(recordsOfConnection, start, firstTime, lastAnswerTime);
+            connections.add(connection);
+            connection.sender.start();
+        }
+        for (ReplayConnection connection : connections) {
+            connection.sender.join();
+        }
+
+        List<Long> latencies = new ArrayList<>();
+        int lost = 0;
+        for (ReplayConnection connection : connections) {
+            latencies.addAll(connection.latencies);
+            lost += connection.lost;
+        }
+        long[] sorted = new long[latencies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        return new Result(records.size(), lost, Math.max(lastAnswerTime.get() - start, 1), sorted);
+    }
+
+    /**
+     * Replay with the local server which executes the script
+     *
+     * @param records    - captured requests
+     * @param scriptPath - groovy script
+     * @param speed      - see {@link #setSpeed(double)}
+     * @return result of replay
+     * @throws Exception
+     */
+    public static Result replay(List<TrafficCapture.Record> records, String scriptPath, double speed)
+            throws Exception {
+        try (Server<PlainSocketHandler> server = new Server<>(new PlainSocketHandler(), scriptPath, 10000)) {
+            Thread thread = new Thread(() -> {
+                try {
+                    server.start();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "replay-server");
+            thread.setDaemon(true);
+            thread.start();
+            awaitServer("localhost", 8443);
+            TrafficReplay replay = new TrafficReplay(records);
+            replay.setSpeed(speed);
+            Result result = replay.replay();
+            server.close();
+            thread.join();
+            return result;
+        }
+    }
+
+    private static void awaitServer(String host, int port) throws InterruptedException, IOException {
+        for (int i = 0; ; i++) {
+            try (Socket ignored = new Socket(host, port)) {
+                return;
+            } catch (IOException ex) {
+                if (i > 100) {
+                    throw ex;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: TrafficReplay capture-file script [other-script] [speed: 1, N or max]");
+            return;
+        }
+        List<TrafficCapture.Record> records = TrafficCapture.read(Paths.get(args[0]));
+        String otherScript = args.length > 2 && !isSpeed(args[2]) ? args[2] : null;
+        String speedArgument = args.length > 3 ? args[3] : args.length > 2 && isSpeed(args[2]) ? args[2] : "1";
+        double speed = "max".equals(speedArgument) ? 0 : Double.parseDouble(speedArgument);
+
+        Result result = replay(records, args[1], speed);
+        System.out.println(args[1] + ": " + result);
+        if (otherScript != null) {
+            Result other = replay(records, otherScript, speed);
+            System.out.println(otherScript + ": " + other);
+            System.out.printf("difference: throughput %+.1f%%, p50 %+.1f%%, p99 %+.1f%%%n",
+                    percent(result.getThroughput(), other.getThroughput()),
+                    percent(result.getPercentile(50), other.getPercentile(50)),
+                    percent(result.getPercentile(99), other.getPercentile(99)));
+        }
+    }
+
+    private static boolean isSpeed(String argument) {
+        return "max".equals(argument) || argument.matches("[0-9.]+");
+    }
+
+    private static double percent(double base, double value) {
+        return base == 0 ? 0 : (value - base) * 100 / base;
+    }
+
+    /**
+     * Client socket of the captured connection, the requests are sent by own thread
+     */
+    private class ReplayConnection {
+        private final List<TrafficCapture.Record> records;
+        private final long start;
+        private final long firstTime;
+        private final AtomicLong lastAnswerTime;
+        private final ConcurrentLinkedQueue<Long> sendTimes = new ConcurrentLinkedQueue<>();
+        private final Semaphore answered = new Semaphore(0);
+        private final List<Long> latencies = new ArrayList<>();
+        private int lost;
+        private final Thread sender;
+
+        private ReplayConnection(List<TrafficCapture.Record> records, long start, long firstTime,
+                                 AtomicLong lastAnswerTime) {
+            this.records = records;
+            this.start = start;
+            this.firstTime = firstTime;
+            this.lastAnswerTime = lastAnswerTime;
+            sender = new Thread(this::send, "replay-sender");
+            sender.setDaemon(true);
+        }
+
+        private void send() {
+            Socket socket = null;
+            Thread reader = null;
+            try {
+                for (TrafficCapture.Record record : records) {
+                    if (speed > 0) {
+                        long delay = start + (long) ((record.getTime() - firstTime) / speed) - System.nanoTime();
+                        if (delay > 0) {
+                            LockSupport.parkNanos(delay);
+                        }
+                    }
+                    //waiting for the answer to the previous request
+                    if (socket != null && !answered.tryAcquire(responseTimeout, TimeUnit.MILLISECONDS)) {
+                        lost++;
+                        close(socket, reader);
+                        socket = null;
+                    }
+                    if (socket == null) {
+                        sendTimes.clear();
+                        answered.drainPermits();
+                        socket = new Socket(host, port);
+                        socket.setTcpNoDelay(true);
+                        reader = startReader(socket.getInputStream());
+                    }
+                    sendTimes.add(System.nanoTime());
+                    OutputStream out = socket.getOutputStream();
+                    out.write(record.getData());
+                    out.flush();
+                }
+                //waiting for the last answer
+                if (socket != null && !answered.tryAcquire(responseTimeout, TimeUnit.MILLISECONDS)) {
+                    lost++;
+                }
+            } catch (IOException | InterruptedException ex) {
+                ex.printStackTrace();
+            } finally {
+                if (socket != null) {
+                    close(socket, reader);
+                }
+            }
+        }
+
+        private void close(Socket socket, Thread reader) {
+            try {
+                socket.close();
+                reader.join();
+            } catch (IOException | InterruptedException ex) {
+                ex.printStackTrace();
+            }
+        }
+
+        private Thread startReader(InputStream in) {
+            Thread reader = new Thread(() -> {
+                byte[] buffer = new byte[64 * 1024];
+                //bytes of the answer which is not received completely
+                long received = 0;
+                try {
+                    int n;
+                    while ((n = in.read(buffer)) > 0) {
+                        long now = System.nanoTime();
+                        int answers = 1;
+                        if (answerSize > 0) {
+                            received += n;
+                            answers = (int) (received / answerSize);
+                            received %= answerSize;
+                        }
+                        for (int i = 0; i < answers; i++) {
+                            Long sendTime = sendTimes.poll();
+                            if (sendTime != null) {
+                                latencies.add(now - sendTime);
+                                lastAnswerTime.accumulateAndGet(now, Math::max);
+                                answered.release();
+                            }
+                        }
+                    }
+                } catch (IOException ex) {
+                    //socket is closed
+                }
+            }, "replay-reader");
+            reader.setDaemon(true);
+            reader.start();
+            return reader;
+        }
+    }
+
+    /**
+     * Throughput and latency of replay
+     */
+    public static class Result {
+        private final int frames;
+        private final int lost;
+        private final long duration;
+        private final long[] latencies;
+
+        private Result(int frames, int lost, long duration, long[] latencies) {
+            this.frames = frames;
+            this.lost = lost;
+            this.duration = duration;
+            this.latencies = latencies;
+        }
+
+        public int getFrames() {
+            return frames;
+        }
+
+        /**
+         * @return number of requests without answer in the timeout
+         */
+        public int getLost() {
+            return lost;
+        }
+
+        /**
+         * @return number of received answers
+         */
+        public int getAnswers() {
+            return latencies.length;
+        }
+
+        /**
+         * @return answers per second
+         */
+        public double getThroughput() {
+            return latencies.length / (duration / 1e9);
+        }
+
+        /**
+         * @param percentile - from 0 to 100
+         * @return latency in microseconds
+         */
+        public double getPercentile(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))] / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("frames: %d, answers: %d, lost: %d, throughput: %.0f/s, latency p50: %.0f us, p99: %.0f us",
+                    frames, getAnswers(), lost, getThroughput(), getPercentile(50), getPercentile(99));
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package kilimandjaro;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * WorkScheduler - pool of workers for the requests of clients.
+ * <p>
+ * The requests are put into the lock-free inbox of connection, the connection is scheduled
+ * to the lock-free queue of its home worker (id of connection modulo number of active workers),
+ * so the requests of one connection are processed by the same core while it is possible.
+ * The idle worker steals connections from the queues of other workers.
+ * The connection is taken by one worker at a time, therefore its requests are processed in order.
+ * <p>
+ * The number of active workers is changed between minimum and maximum by the measured delay
+ * from the scheduling of connection to the start of its processing.
+ * <p>
+ * The quarantined connection (see {@link Server#setQuarantineThreshold(int)}) is scheduled to the separate
+ * quarantine worker, it is not stolen, so the slow requests don't take the workers from the others.
+ * The connection is moved to quarantine when it is released by the worker, so the order is kept.
+ */
+public class WorkScheduler implements AutoCloseable {
+    final static Logger logger = LoggerFactory.getLogger(WorkScheduler.class);
+
+    //requests of one connection which are processed before the switching to other connection
+    private final static int QUANTUM = 16;
+
+    private final Worker[] workers;
+    private final Worker quarantineWorker;
+    private final int minWorkers;
+    private final int capacity;
+    private final Consumer<List<Frame>> processor;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger quarantinePending = new AtomicInteger();
+    private final Thread controller;
+    private volatile int activeWorkers;
+    private volatile boolean isActive;
+    private int batchSize = 1;
+    private long batchWait = 0;
+    private long targetDelay = 1000;
+    private long adjustPeriod = 100;
+
+    /**
+     * Constructor
+     *
+     * @param minWorkers - minimum number of active workers
+     * @param maxWorkers - maximum number of active workers
+     * @param capacity   - maximum number of waiting requests, the same for quarantined connections
+     * @param processor  - processing of requests, the list contains at most batchSize requests
+     *                   or {@link #QUANTUM} requests of one connection if batch is not used
+     */
+    public WorkScheduler(int minWorkers, int maxWorkers, int capacity, Consumer<List<Frame>> processor) {
+        this.minWorkers = Math.max(minWorkers, 1);
+        this.capacity = capacity;
+        this.processor = processor;
+        workers = new Worker[Math.max(maxWorkers, this.minWorkers)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i, "worker-" + i);
+        }
+        quarantineWorker = new Worker(-1, "quarantine-worker");
+        activeWorkers = this.minWorkers;
+        controller = new Thread(this::adjust, "scheduler-controller");
+        controller.setDaemon(true);
+    }
+
+    /**
+     * see {@link Server#setBatchMode(int, long)}
+     *
+     * @param batchSize - maximum number of requests for processor
+     * @param batchWait - waiting for the filling of batch in microseconds
+     */
+    public void setBatchMode(int batchSize, long batchWait) {
+        this.batchSize = batchSize;
+        this.batchWait = batchWait;
+    }
+
+    /**
+     * The delay of queue above which the worker is added,
+     * the worker is removed when the delay is four times less.
+     *
+     * @param targetDelay in microseconds, default is 1000, must be positive
+     */
+    public void setTargetDelay(long targetDelay) {
+        if (targetDelay <= 0) {
+            throw new IllegalArgumentException("target delay must be positive: " + targetDelay);
+        }
+        this.targetDelay = targetDelay;
+    }
+
+    /**
+     * The period of the measurement of delay and the change of the number of workers
+     *
+     * @param adjustPeriod in milliseconds, default is 100
+     */
+    public void setAdjustPeriod(long adjustPeriod) {
+        this.adjustPeriod = adjustPeriod;
+    }
+
+    /**
+     * @return current number of active workers
+     */
+    public int getActiveWorkers() {
+        return activeWorkers;
+    }
+
+    public void start() {
+        isActive = true;
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+        quarantineWorker.thread.start();
+        controller.start();
+    }
+
+    /**
+     * Puts the request to the inbox of connection, it never blocks
+     *
+     * @param frame - request
+     * @return false - if the number of waiting requests reached the capacity
+     */
+    public boolean submit(Frame frame) {
+        Connection connection = frame.getConnection();
+        boolean quarantined = connection.isQuarantined();
+        AtomicInteger counter = quarantined ? quarantinePending : pending;
+        if (counter.incrementAndGet() > capacity) {
+            counter.decrementAndGet();
+            return false;
+        }
+        frame.setQuarantined(quarantined);
+        connection.getInbox().add(frame);
+        schedule(connection);
+        return true;
+    }
+
+    private void schedule(Connection connection) {
+        if (connection.getScheduled().compareAndSet(false, true)) {
+            connection.setScheduledTime(System.nanoTime());
+            if (connection.isQuarantined()) {
+                quarantineWorker.queue.add(connection);
+                LockSupport.unpark(quarantineWorker.thread);
+                return;
+            }
+            Worker home = workers[(int) (connection.getId() % activeWorkers)];
+            home.queue.add(connection);
+            if (home.parked) {
+                LockSupport.unpark(home.thread);
+            } else {
+                //the home worker is busy, the idle one can steal
+                wakeIdle(home);
+            }
+        }
+    }
+
+    /**
+     * Unparks one idle active worker
+     *
+     * @param busy - the worker which is not unparked
+     */
+    private void wakeIdle(Worker busy) {
+        int active = activeWorkers;
+        for (int i = 0; i < active; i++) {
+            if (workers[i] != busy && workers[i].parked) {
+                LockSupport.unpark(workers[i].thread);
+                return;
+            }
+        }
+    }
+
+    /**
+     * The connection can be taken by other worker,
+     * if it has got new requests during processing it is scheduled again.
+     *
+     * @param connection - processed connection
+     */
+    private void release(Connection connection) {
+        connection.getScheduled().set(false);
+        if (!connection.getInbox().isEmpty()) {
+            schedule(connection);
+        }
+    }
+
+    /**
+     * Changes the number of active workers by the delay of queue:
+     * the average delay of the taken connections or the age of the oldest waiting one if it is more,
+     * so the delay is seen when all workers are busy with long requests.
+     * The number of added workers is proportional to the delay, one worker is removed at a time.
+     */
+    private void adjust() {
+        while (isActive) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(adjustPeriod));
+            try {
+                adjustWorkers();
+            } catch (RuntimeException ex) {
+                //the number of workers is kept, the controller continues
+                logger.error("adjusting of workers failed", ex);
+            }
+        }
+    }
+
+    /**
+     * One measurement of the delay of queue and the change of the number of workers
+     */
+    private void adjustWorkers() {
+        long delay = 0;
+        long count = 0;
+        for (Worker worker : workers) {
+            delay += worker.delay.getAndSet(0);
+            count += worker.delayCount.getAndSet(0);
+        }
+        long now = System.nanoTime();
+        long oldest = 0;
+        for (Worker worker : workers) {
+            Connection waiting = worker.queue.peek();
+            if (waiting != null) {
+                oldest = Math.max(oldest, now - waiting.getScheduledTime());
+            }
+        }
+        long averageDelay = TimeUnit.NANOSECONDS.toMicros(Math.max(count == 0 ? 0 : delay / count, oldest));
+        int active = activeWorkers;
+        if (averageDelay > targetDelay && active < workers.length) {
+            int added = (int) Math.min(workers.length - active, averageDelay / targetDelay);
+            activeWorkers = active + added;
+            for (int i = active; i < active + added; i++) {
+                LockSupport.unpark(workers[i].thread);
+            }
+            if (Server.DEBUG) logger.debug("workers: " + (active + added) + ", delay: " + averageDelay);
+        } else if (averageDelay < targetDelay / 4 && active > minWorkers) {
+            //the removed worker finishes own queue, the rest is stolen by others
+            activeWorkers = active - 1;
+            if (Server.DEBUG) logger.debug("workers: " + (active - 1) + ", delay: " + averageDelay);
+        }
+    }
+
+    /**
+     * Stops the workers, the script which is executed now is interrupted, the waiting requests are dropped
+     */
+    @Override
+    public void close() {
+        isActive = false;
+        for (Worker worker : workers) {
+            worker.thread.interrupt();
+        }
+        quarantineWorker.thread.interrupt();
+        controller.interrupt();
+    }
+
+    private class Worker implements Runnable {
+        private final int index;
+        private final ConcurrentLinkedQueue<Connection> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicLong delay = new AtomicLong();
+        private final AtomicLong delayCount = new AtomicLong();
+        private final Thread thread;
+        private volatile boolean parked;
+
+        /**
+         * @param index - index in workers, -1 for the quarantine worker
+         * @param name  - name of thread
+         */
+        private Worker(int index, String name) {
+            this.index = index;
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int maxFrames = batchSize > 1 ? batchSize : QUANTUM;
+            List<Frame> frames = new ArrayList<>(maxFrames);
+            List<Connection> taken = new ArrayList<>();
+            while (isActive) {
+                //the inactive worker finishes own queue only
+                Connection connection = index < activeWorkers ? next() : queue.poll();
+                if (connection == null) {
+                    idle();
+                    continue;
+                }
+                take(connection, frames, taken, maxFrames);
+                if (batchSize > 1 && frames.size() < batchSize) {
+                    fillBatch(frames, taken);
+                }
+                try {
+                    processor.accept(frames);
+                } catch (RuntimeException ex) {
+                    logger.error("processing of requests failed", ex);
+                } finally {
+                    for (Connection takenConnection : taken) {
+                        release(takenConnection);
+                    }
+                    frames.clear();
+                    taken.clear();
+                }
+            }
+        }
+
+        /**
+         * @return connection from own queue or stolen from other worker, null if there is no work
+         */
+        private Connection next() {
+            Worker source = this;
+            Connection connection = queue.poll();
+            //the quarantine worker doesn't steal
+            for (int i = 1; connection == null && index >= 0 && i < workers.length; i++) {
+                source = workers[(index + i) % workers.length];
+                connection = source.queue.poll();
+            }
+            if (connection != null) {
+                //the wakeup of several submitters could get one worker only
+                if (index >= 0 && !source.queue.isEmpty()) {
+                    wakeIdle(this);
+                }
+                delay.addAndGet(System.nanoTime() - connection.getScheduledTime());
+                delayCount.incrementAndGet();
+            }
+            return connection;
+        }
+
+        private void take(Connection connection, List<Frame> frames, List<Connection> taken, int maxFrames) {
+            taken.add(connection);
+            Frame frame;
+            while (frames.size() < maxFrames && (frame = connection.getInbox().poll()) != null) {
+                frames.add(frame);
+                (frame.isQuarantined() ? quarantinePending : pending).decrementAndGet();
+            }
+        }
+
+        /**
+         * Takes other connections while the batch is not full, waits for them not longer than batchWait
+         */
+        private void fillBatch(List<Frame> frames, List<Connection> taken) {
+            long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(batchWait);
+            while (frames.size() < batchSize) {
+                Connection connection = next();
+                if (connection != null) {
+                    take(connection, frames, taken, batchSize);
+                } else if (deadline - System.nanoTime() > 0) {
+                    Thread.yield();
+                } else {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * The worker is parked until the work is scheduled for it or it is activated.
+         * The flag is set before the last check of queues and the submitter checks it after adding
+         * to the queue (both are volatile), so either the work is seen here or the worker is unparked.
+         */
+        private void idle() {
+            parked = true;
+            if (!hasWork()) {
+                LockSupport.park(this);
+            }
+            parked = false;
+        }
+
+        private boolean hasWork() {
+            if (!queue.isEmpty()) {
+                return true;
+            }
+            if (index < 0 || index >= activeWorkers) {
+                return false;
+            }
+            for (Worker worker : workers) {
+                if (!worker.queue.isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
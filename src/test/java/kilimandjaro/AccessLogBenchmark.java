@@ -0,0 +1,31 @@
+package kilimandjaro;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Throughput of the selector with the switched on and off {@link AccessLog}.
+ * Arguments: number of clients (default 16), duration of each run in seconds (default 10).
+ */
+public class AccessLogBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        Path file = Files.createTempFile("access", ".log");
+        try (AccessLog accessLog = new AccessLog(file, 64 * 1024, 64 * 1024 * 1024, 2);
+             Server<PlainSocketHandler> server =
+                     new Server<>(new PlainSocketHandler(), Benchmarks.echoScriptPath(), 10000)) {
+            server.setAccessLog(accessLog);
+            Benchmarks.start(server);
+            //warm up
+            Benchmarks.echo("localhost", 8443, clients, 32, seconds);
+            for (boolean enabled : new boolean[]{false, true, false, true}) {
+                accessLog.setEnabled(enabled);
+                double rate = Benchmarks.echo("localhost", 8443, clients, 32, seconds);
+                System.out.printf("access log %-3s: %10.0f requests/s%n", enabled ? "on" : "off", rate);
+            }
+            System.out.println("dropped records: " + accessLog.getDropped());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package kilimandjaro;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+public class AccessLogTest {
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        Path directory = Files.createTempDirectory("access-log");
+        Path file = directory.resolve("access.log");
+        try (AccessLog accessLog = new AccessLog(file, 1024, 1024 * 1024, 1)) {
+            accessLog.log(1, 10, 20, 8443, AccessLog.STATUS_OK, 1000);
+            accessLog.setEnabled(false);
+            accessLog.log(2, 10, 20, 8443, AccessLog.STATUS_OK, 1000);
+            accessLog.setEnabled(true);
+            accessLog.log(3, 30, 40, 8443, AccessLog.STATUS_TIMEOUT, 2000);
+        }
+        List<AccessLog.Record> records = AccessLog.read(file);
+        Assert.assertEquals(2, records.size());
+        Assert.assertEquals(1, records.get(0).getConnectionId());
+        Assert.assertEquals(20, records.get(0).getBytesOut());
+        Assert.assertEquals(3, records.get(1).getConnectionId());
+        Assert.assertEquals(30, records.get(1).getBytesIn());
+        Assert.assertEquals(8443, records.get(1).getRoute());
+        Assert.assertEquals(AccessLog.STATUS_TIMEOUT, records.get(1).getStatus());
+        Assert.assertEquals(2000, records.get(1).getLatency());
+    }
+
+    @Test
+    public void testConcurrentWritersAndRolling() throws Exception {
+        Path directory = Files.createTempDirectory("access-log");
+        Path file = directory.resolve("access.log");
+        int threads = 4;
+        int records = 10000;
+        long dropped;
+        try (AccessLog accessLog = new AccessLog(file, 64 * 1024, 100 * AccessLog.RECORD_SIZE, 1000)) {
+            Thread[] writers = new Thread[threads];
+            for (int i = 0; i < threads; i++) {
+                final int connectionId = i;
+                writers[i] = new Thread(() -> {
+                    for (int j = 0; j < records; j++) {
+                        accessLog.log(connectionId, j, j, 0, AccessLog.STATUS_OK, j);
+                    }
+                });
+                writers[i].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            dropped = accessLog.getDropped();
+        }
+        long total = AccessLog.read(file).size();
+        for (int i = 1; Files.exists(Paths.get(file + "." + i)); i++) {
+            for (AccessLog.Record record : AccessLog.read(Paths.get(file + "." + i))) {
+                Assert.assertEquals(record.getBytesIn(), record.getLatency());
+                total++;
+            }
+        }
+        Assert.assertEquals(threads * records, total + dropped);
+        Assert.assertTrue(Files.exists(Paths.get(file + ".1")));
+    }
+}
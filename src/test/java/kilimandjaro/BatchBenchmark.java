@@ -0,0 +1,30 @@
+package kilimandjaro;
+
+/**
+ * Requests per second of the echo script with the batch size 1, 16 and 256.
+ * Arguments: number of clients (default 256), duration of each run in seconds (default 10),
+ * waiting for the filling of batch in microseconds (default 100).
+ */
+public class BatchBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        long batchWait = args.length > 2 ? Long.parseLong(args[2]) : 100;
+        for (int batchSize : new int[]{1, 16, 256}) {
+            Thread thread;
+            double rate;
+            try (Server<PlainSocketHandler> server =
+                         new Server<>(new PlainSocketHandler(), Benchmarks.echoScriptPath(), 10000)) {
+                //the echo script returns the list of requests as the list of answers
+                server.setBatchMode(batchSize, batchWait);
+                thread = Benchmarks.start(server);
+                //warm up
+                Benchmarks.echo("localhost", 8443, clients, 16, seconds);
+                rate = Benchmarks.echo("localhost", 8443, clients, 16, seconds);
+            }
+            thread.join();
+            System.out.printf("batch size %3d: %10.0f frames/s%n", batchSize, rate);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package kilimandjaro;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class BatchTest {
+
+    @Test
+    public void testAnswersInOrder() throws Exception {
+        //the answer is the request with the size of batch
+        Path script = ScriptResultTest.script("return data.collect { (new String(it) + ':' + data.size()).bytes }");
+        List<String> answers = requests(script, 4, 1000000, 0, "a", "b", "c", "d");
+        boolean batched = false;
+        for (int i = 0; i < answers.size(); i++) {
+            Assert.assertTrue(answers.get(i), answers.get(i).startsWith((char) ('a' + i) + ":"));
+            batched |= !answers.get(i).endsWith(":1");
+        }
+        Assert.assertTrue(batched);
+    }
+
+    @Test
+    public void testInvalidResult() throws Exception {
+        Path script = ScriptResultTest.script("def request = new String(data[0])\n" +
+                "if (request == 'short') return []\n" +
+                "if (request == 'null') return [null]\n" +
+                "if (request == 'text') return ['text']\n" +
+                "return request.bytes");
+        String error = new String(Server.ERROR_FRAME, StandardCharsets.UTF_8);
+        for (String request : new String[]{"short", "null", "text", "other"}) {
+            Assert.assertEquals(Arrays.asList(error), requests(script, 2, 0, 0, request));
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        Path script = ScriptResultTest.script("Thread.sleep(60000)");
+        String timeout = new String(Server.TIMEOUT_FRAME, StandardCharsets.UTF_8);
+        Assert.assertEquals(Arrays.asList(timeout, timeout), requests(script, 2, 1000000, 200, "a", "b"));
+    }
+
+    @Test
+    public void testGatheringWrite() throws Exception {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress("localhost", 0));
+            try (SocketChannel client = SocketChannel.open(serverChannel.getLocalAddress());
+                 SocketChannel accepted = serverChannel.accept()) {
+                client.configureBlocking(false);
+                //the data is more than the buffer of socket
+                ByteBuffer[] data = new ByteBuffer[100];
+                ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                for (int i = 0; i < data.length; i++) {
+                    byte[] bytes = new byte[i * 3200];
+                    Arrays.fill(bytes, (byte) i);
+                    data[i] = ByteBuffer.wrap(bytes);
+                    expected.write(bytes);
+                }
+                ExecutorService reader = Executors.newSingleThreadExecutor();
+                Future<byte[]> received = reader.submit(() -> {
+                    ByteBuffer buffer = ByteBuffer.allocate(expected.size());
+                    while (buffer.hasRemaining() && accepted.read(buffer) >= 0) {
+                        //reading until all data
+                    }
+                    return buffer.array();
+                });
+                PlainSocketHandler handler = new PlainSocketHandler();
+                int partialWrites = 0;
+                //the rest is written on the next call as on the next readiness of socket
+                while (!handler.write(client, data)) {
+                    partialWrites++;
+                    Thread.sleep(1);
+                }
+                Assert.assertTrue(partialWrites > 0);
+                Assert.assertArrayEquals(expected.toByteArray(), received.get());
+                reader.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Every request is sent by own client at the same time
+     *
+     * @return answers in order of requests
+     */
+    private static List<String> requests(Path script, int batchSize, long batchWait, long scriptTimeout,
+                                         String... requests) throws Exception {
+        int port = ScriptResultTest.freePort();
+        try (Server<PlainSocketHandler> server = new Server<>(new PlainSocketHandler(), script.toString(), 100)) {
+            server.setServerPort(port);
+            server.setBatchMode(batchSize, batchWait);
+            server.setScriptTimeout(scriptTimeout);
+            Benchmarks.start(server);
+            List<Socket> sockets = new ArrayList<>();
+            try {
+                for (String request : requests) {
+                    Socket socket = new Socket("localhost", port);
+                    sockets.add(socket);
+                    socket.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+                    socket.getOutputStream().flush();
+                }
+                List<String> answers = new ArrayList<>();
+                for (Socket socket : sockets) {
+                    InputStream in = socket.getInputStream();
+                    byte[] buffer = new byte[1024];
+                    int n = in.read(buffer);
+                    answers.add(new String(buffer, 0, Math.max(n, 0), StandardCharsets.UTF_8));
+                }
+                return answers;
+            } finally {
+                for (Socket socket : sockets) {
+                    socket.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package kilimandjaro;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Common code of benchmarks. The benchmarks are started by the method main with the test classpath,
+ * on java 9+ groovy needs the options of the profile jdk9 (see pom.xml).
+ */
+public class Benchmarks {
+
+    /**
+     * Starts the server in the daemon thread
+     *
+     * @param server - configured server
+     * @return thread of server, it is finished after closing of server
+     * @throws InterruptedException
+     */
+    public static Thread start(Server<?> server) throws InterruptedException {
+        Thread thread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        Thread.sleep(1000);
+        return thread;
+    }
+
+    /**
+     * @return path of the script which returns the request
+     */
+    public static String echoScriptPath() {
+        return Benchmarks.class.getClassLoader().getResource("EchoScript.groovy").getFile();
+    }
+
+    /**
+     * Clients send the request and wait for the echo
+     *
+     * @param host    - host of server
+     * @param port    - port of server
+     * @param clients - number of connections
+     * @param size    - size of request in bytes
+     * @param seconds - duration
+     * @return requests per second
+     * @throws InterruptedException
+     */
+    public static double echo(String host, int port, int clients, int size, int seconds) throws InterruptedException {
+        LongAdder requests = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        CountDownLatch done = new CountDownLatch(clients);
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            Thread thread = new Thread(() -> {
+                byte[] request = new byte[size];
+                byte[] answer = new byte[size];
+                try (Socket socket = new Socket(host, port)) {
+                    socket.setTcpNoDelay(true);
+                    OutputStream out = socket.getOutputStream();
+                    InputStream in = socket.getInputStream();
+                    while (System.nanoTime() < deadline) {
+                        out.write(request);
+                        out.flush();
+                        int received = 0;
+                        while (received < size) {
+                            int n = in.read(answer, received, size - received);
+                            if (n < 0) {
+                                throw new IOException("connection is closed");
+                            }
+                            received += n;
+                        }
+                        requests.increment();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        return requests.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+}
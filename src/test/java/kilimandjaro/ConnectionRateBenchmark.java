@@ -0,0 +1,76 @@
+package kilimandjaro;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connections per second (connect, one request, close) with one acceptor thread,
+ * with several threads sharing the listening socket and with own sockets bound with SO_REUSEPORT.
+ * Arguments: number of clients (default 32), duration of each run in seconds (default 10),
+ * number of acceptor threads (default is number of processors).
+ */
+public class ConnectionRateBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int acceptors = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        run("1 acceptor", 1, false, clients, seconds);
+        run(acceptors + " acceptors, shared socket", acceptors, false, clients, seconds);
+        run(acceptors + " acceptors, SO_REUSEPORT", acceptors, true, clients, seconds);
+    }
+
+    private static void run(String name, int acceptors, boolean reusePort, int clients, int seconds)
+            throws Exception {
+        Thread thread;
+        double rate;
+        try (Server<PlainSocketHandler> server =
+                     new Server<>(new PlainSocketHandler(), Benchmarks.echoScriptPath(), 10000)) {
+            server.setAcceptorThreads(acceptors);
+            server.setReusePort(reusePort);
+            thread = Benchmarks.start(server);
+            //warm up
+            connect(clients, seconds);
+            rate = connect(clients, seconds);
+        }
+        thread.join();
+        System.out.printf("%-32s: %10.0f connections/s%n", name, rate);
+    }
+
+    private static double connect(int clients, int seconds) throws InterruptedException {
+        LongAdder connections = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        CountDownLatch done = new CountDownLatch(clients);
+        long start = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        try (Socket socket = new Socket("localhost", 8443)) {
+                            //reset instead of TIME_WAIT, otherwise the local ports are exhausted
+                            socket.setSoLinger(true, 0);
+                            socket.getOutputStream().write(1);
+                            InputStream in = socket.getInputStream();
+                            if (in.read() < 0) {
+                                throw new IOException("connection is closed");
+                            }
+                        }
+                        connections.increment();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        return connections.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,179 @@
+package kilimandjaro;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.net.ssl.SSLSocket;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class ListenerTest {
+
+    @Test
+    public void testSeveralListeners() throws Exception {
+        int port = freePort();
+        int otherPort = freePort();
+        try (Server<PlainSocketHandler> server =
+                     new Server<>(new PlainSocketHandler(), Benchmarks.echoScriptPath(), 100)) {
+            server.setServerPort(port);
+            server.addListener("localhost", otherPort, new PlainSocketHandler());
+            server.setAcceptorThreads(2);
+            Thread thread = Benchmarks.start(server);
+            Assert.assertEquals("first", echo(port, "first"));
+            Assert.assertEquals("second", echo(otherPort, "second"));
+            server.close();
+            thread.join(5000);
+            Assert.assertFalse(thread.isAlive());
+        }
+    }
+
+    @Test
+    public void testConcurrentClientsWithSeveralAcceptors() throws Exception {
+        int port = freePort();
+        try (Server<PlainSocketHandler> server =
+                     new Server<>(new PlainSocketHandler(), Benchmarks.echoScriptPath(), 1000)) {
+            server.setServerPort(port);
+            server.setAcceptorThreads(2);
+            Benchmarks.start(server);
+            List<Future<Boolean>> results = new ArrayList<>();
+            ExecutorService clients = Executors.newFixedThreadPool(8);
+            for (int c = 0; c < 8; c++) {
+                byte id = (byte) c;
+                results.add(clients.submit(() -> {
+                    //the request of every client has own bytes, the echo must not contain the others
+                    byte[] request = new byte[8000];
+                    Arrays.fill(request, id);
+                    try (Socket socket = new Socket("localhost", port)) {
+                        for (int i = 0; i < 50; i++) {
+                            socket.getOutputStream().write(request);
+                            socket.getOutputStream().flush();
+                            InputStream in = socket.getInputStream();
+                            for (int received = 0; received < request.length; ) {
+                                int b = in.read();
+                                if (b != id) {
+                                    return false;
+                                }
+                                received++;
+                            }
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get(30, TimeUnit.SECONDS));
+            }
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentTlsClientsWithSeveralAcceptors() throws Exception {
+        int port = freePort();
+        SSLSocketHandler handler = new SSLSocketHandler();
+        handler.setKeystoreFilePath(ListenerTest.class.getResource("/keystore.jks").getPath());
+        handler.setTrustStoreFilePath(ListenerTest.class.getResource("/truststore.jks").getPath());
+        handler.setPassword("qwerty");
+        try (Server<SSLSocketHandler> server = new Server<>(handler, Benchmarks.echoScriptPath(), 1000)) {
+            server.setServerPort(port);
+            server.setAcceptorThreads(2);
+            Benchmarks.start(server);
+            List<Future<Boolean>> results = new ArrayList<>();
+            ExecutorService clients = Executors.newFixedThreadPool(6);
+            for (int c = 0; c < 6; c++) {
+                byte id = (byte) c;
+                results.add(clients.submit(() -> {
+                    //the handshakes and the records of clients are mixed, the session of every one is own
+                    byte[] request = new byte[4000];
+                    Arrays.fill(request, id);
+                    try (SSLSocket socket = (SSLSocket) DemoSSlServerTest.createTrustAllSSLContext()
+                            .getSocketFactory().createSocket("localhost", port)) {
+                        socket.startHandshake();
+                        for (int i = 0; i < 20; i++) {
+                            socket.getOutputStream().write(request);
+                            socket.getOutputStream().flush();
+                            InputStream in = socket.getInputStream();
+                            for (int received = 0; received < request.length; received++) {
+                                if (in.read() != id) {
+                                    return false;
+                                }
+                            }
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get(30, TimeUnit.SECONDS));
+            }
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    public void testReusePort() throws Exception {
+        if (!isReusePortSupported()) {
+            return;
+        }
+        int port = freePort();
+        try (Server<PlainSocketHandler> server =
+                     new Server<>(new PlainSocketHandler(), Benchmarks.echoScriptPath(), 100);
+             Server<PlainSocketHandler> otherServer =
+                     new Server<>(new PlainSocketHandler(), Benchmarks.echoScriptPath(), 100)) {
+            server.setServerPort(port);
+            server.setReusePort(true);
+            otherServer.setServerPort(port);
+            otherServer.setReusePort(true);
+            otherServer.setAcceptorThreads(2);
+            Benchmarks.start(server);
+            Benchmarks.start(otherServer);
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals("request " + i, echo(port, "request " + i));
+            }
+        }
+    }
+
+    private static boolean isReusePortSupported() {
+        try {
+            java.net.StandardSocketOptions.class.getField("SO_REUSEPORT");
+            return true;
+        } catch (NoSuchFieldException e) {
+            return false;
+        }
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String echo(int port, String request) throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(request.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            byte[] answer = new byte[request.length()];
+            int received = 0;
+            while (received < answer.length) {
+                int n = in.read(answer, received, answer.length - received);
+                if (n < 0) {
+                    break;
+                }
+                received += n;
+            }
+            return new String(answer, 0, received, StandardCharsets.UTF_8);
+        }
+    }
+}
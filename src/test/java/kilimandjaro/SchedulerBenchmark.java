@@ -0,0 +1,125 @@
+package kilimandjaro;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Requests per second of the single shared queue with the fixed pool (the previous design)
+ * and {@link WorkScheduler}. The selector threads are simulated by producers,
+ * every request is the short work of processor.
+ * Arguments: number of connections (default 256), producers (default 2),
+ * work of request in nanoseconds (default 2000), duration of each run in seconds (default 10).
+ */
+public class SchedulerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int producers = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        long work = args.length > 2 ? Long.parseLong(args[2]) : 2000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+        int workers = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < 2; i++) {
+            //the first round is warm up
+            double queueRate = sharedQueue(connections, producers, workers, work, seconds);
+            double schedulerRate = scheduler(connections, producers, workers, work, seconds);
+            System.out.printf("shared queue: %10.0f frames/s, work scheduler: %10.0f frames/s (%+.1f%%)%n",
+                    queueRate, schedulerRate, (schedulerRate - queueRate) * 100 / queueRate);
+        }
+    }
+
+    private static double sharedQueue(int connections, int producers, int workers, long work, int seconds)
+            throws InterruptedException {
+        LinkedBlockingQueue<Frame> queue = new LinkedBlockingQueue<>(10000);
+        LongAdder processed = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    while (!Thread.interrupted()) {
+                        queue.take();
+                        spin(work);
+                        processed.increment();
+                    }
+                } catch (InterruptedException e) {
+                    //stopped
+                }
+            }));
+        }
+        return run(connections, producers, seconds, threads, processed, frame -> {
+            try {
+                queue.put(frame);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        });
+    }
+
+    private static double scheduler(int connections, int producers, int workers, long work, int seconds)
+            throws InterruptedException {
+        LongAdder processed = new LongAdder();
+        try (WorkScheduler scheduler = new WorkScheduler(1, workers, 10000, frames -> {
+            for (Frame ignored : frames) {
+                spin(work);
+            }
+            processed.add(frames.size());
+        })) {
+            scheduler.start();
+            double rate = run(connections, producers, seconds, new ArrayList<>(), processed, scheduler::submit);
+            System.out.println("active workers: " + scheduler.getActiveWorkers());
+            return rate;
+        }
+    }
+
+    private static double run(int connections, int producers, int seconds, List<Thread> threads,
+                              LongAdder processed, Submitter submitter) throws InterruptedException {
+        for (int p = 0; p < producers; p++) {
+            int first = p;
+            threads.add(new Thread(() -> {
+                List<Connection> list = new ArrayList<>();
+                for (int i = first; i < connections; i += producers) {
+                    list.add(new Connection(i, null, null));
+                }
+                byte[] data = new byte[16];
+                while (!Thread.currentThread().isInterrupted()) {
+                    for (Connection connection : list) {
+                        while (!submitter.submit(new Frame(connection, data, 0))
+                                && !Thread.currentThread().isInterrupted()) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        Thread.sleep(1000);
+        long start = System.nanoTime();
+        long startCount = processed.sum();
+        Thread.sleep(seconds * 1000L);
+        double rate = (processed.sum() - startCount) / ((System.nanoTime() - start) / 1e9);
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return rate;
+    }
+
+    private static void spin(long nanos) {
+        long deadline = System.nanoTime() + nanos;
+        while (System.nanoTime() < deadline) {
+            //the work of script
+        }
+    }
+
+    private interface Submitter {
+        boolean submit(Frame frame);
+    }
+}
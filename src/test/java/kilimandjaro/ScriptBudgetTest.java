@@ -0,0 +1,94 @@
+package kilimandjaro;
+
+import groovy.lang.Binding;
+import groovy.lang.Script;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeoutException;
+
+public class ScriptBudgetTest {
+
+    @Test
+    public void testTimedInterrupt() throws Exception {
+        Class<? extends Script> scriptClass = Server.compileGroovyScript("int i = 0; while (true) { i++ }", 200);
+        Script script = InvokerHelper.createScript(scriptClass, new Binding());
+        long start = System.currentTimeMillis();
+        try {
+            script.run();
+            Assert.fail();
+        } catch (Exception ex) {
+            Assert.assertTrue(ex instanceof TimeoutException);
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+    }
+
+    @Test
+    public void testWatchdog() throws Exception {
+        Class<? extends Script> scriptClass = Server.compileGroovyScript("Thread.sleep(60000)", 60000);
+        Script script = InvokerHelper.createScript(scriptClass, new Binding());
+        try (ScriptWatchdog watchdog = new ScriptWatchdog()) {
+            ScriptWatchdog.Watch watch = watchdog.watch(200);
+            try {
+                script.run();
+                Assert.fail();
+            } catch (Exception ex) {
+                Assert.assertTrue(watch.isExpired());
+            } finally {
+                watch.close();
+            }
+            Assert.assertFalse(Thread.currentThread().isInterrupted());
+        }
+    }
+
+    @Test
+    public void testWithoutBudget() throws Exception {
+        byte[] data = new byte[]{1, 2, 3};
+        Binding binding = new Binding();
+        binding.setVariable("data", data);
+        Class<? extends Script> scriptClass = Server.compileGroovyScript("return data", 0);
+        Assert.assertSame(data, InvokerHelper.createScript(scriptClass, binding).run());
+    }
+
+    @Test
+    public void testQuarantine() throws Exception {
+        //the answer is the name of worker thread
+        Path script = ScriptResultTest.script("if (new String(data) == 'slow') Thread.sleep(60000)\n" +
+                "return Thread.currentThread().name.padRight(32).bytes");
+        int port = ScriptResultTest.freePort();
+        try (Server<PlainSocketHandler> server = new Server<>(new PlainSocketHandler(), script.toString(), 100)) {
+            server.setServerPort(port);
+            server.setScriptTimeout(200);
+            server.setQuarantineThreshold(2);
+            server.setRefreshPeriodOfGroovyScript(100);
+            Benchmarks.start(server);
+            try (Socket socket = new Socket("localhost", port)) {
+                socket.setSoTimeout(5000);
+                Assert.assertTrue(worker(socket).startsWith("worker-"));
+                for (int i = 0; i < 2; i++) {
+                    Assert.assertArrayEquals(Server.TIMEOUT_FRAME,
+                            ScriptResultTest.request(socket, "slow", Server.TIMEOUT_FRAME.length));
+                }
+                //the threshold is reached, the next requests are processed by the quarantine worker
+                for (int i = 0; i < 3; i++) {
+                    Assert.assertEquals("quarantine-worker", worker(socket));
+                }
+                //the refreshed script releases the quarantine
+                Files.setLastModifiedTime(script,
+                        FileTime.fromMillis(Files.getLastModifiedTime(script).toMillis() + 10000));
+                Thread.sleep(500);
+                Assert.assertTrue(worker(socket).startsWith("worker-"));
+            }
+        }
+    }
+
+    private static String worker(Socket socket) throws Exception {
+        return new String(ScriptResultTest.request(socket, "name", 32), StandardCharsets.UTF_8).trim();
+    }
+}
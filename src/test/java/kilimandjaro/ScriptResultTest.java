@@ -0,0 +1,82 @@
+package kilimandjaro;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ScriptResultTest {
+
+    @Test
+    public void testNullResult() throws Exception {
+        Path script = script("return null");
+        int port = freePort();
+        try (Server<PlainSocketHandler> server = new Server<>(new PlainSocketHandler(), script.toString(), 100)) {
+            server.setServerPort(port);
+            Benchmarks.start(server);
+            try (Socket socket = new Socket("localhost", port)) {
+                //the worker is alive after the first failure
+                for (int i = 0; i < 3; i++) {
+                    Assert.assertArrayEquals(Server.ERROR_FRAME, request(socket, "request", Server.ERROR_FRAME.length));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFailedCreationOfScript() throws Exception {
+        //the field is initialized when the script is created for the request
+        Path script = script("@groovy.transform.Field def number = Integer.parseInt('x')\nreturn data");
+        int port = freePort();
+        try (Server<PlainSocketHandler> server = new Server<>(new PlainSocketHandler(), script.toString(), 100)) {
+            server.setServerPort(port);
+            Benchmarks.start(server);
+            try (Socket socket = new Socket("localhost", port)) {
+                //the request without answer fails the test
+                socket.setSoTimeout(5000);
+                for (int i = 0; i < 3; i++) {
+                    Assert.assertArrayEquals(Server.ERROR_FRAME, request(socket, "request", Server.ERROR_FRAME.length));
+                }
+            }
+        }
+    }
+
+    static Path script(String text) throws Exception {
+        Path script = Files.createTempFile("script", ".groovy");
+        script.toFile().deleteOnExit();
+        Files.write(script, text.getBytes(StandardCharsets.UTF_8));
+        return script;
+    }
+
+    static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Sends the request and reads the answer of expected length
+     */
+    static byte[] request(Socket socket, String request, int length) throws Exception {
+        OutputStream out = socket.getOutputStream();
+        out.write(request.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        InputStream in = socket.getInputStream();
+        byte[] answer = new byte[length];
+        int received = 0;
+        while (received < length) {
+            int n = in.read(answer, received, length - received);
+            if (n < 0) {
+                break;
+            }
+            received += n;
+        }
+        return answer;
+    }
+}
@@ -0,0 +1,93 @@
+package kilimandjaro;
+
+import groovy.lang.Binding;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class StateStoreTest {
+
+    @Test
+    public void testSameStructuresByName() {
+        StateStore state = new StateStore();
+        state.map("sessions").put("a", 1);
+        state.counter("requests").increment();
+        state.counter("requests").increment();
+        Assert.assertEquals(1, state.map("sessions").get("a"));
+        Assert.assertEquals(2, state.counter("requests").sum());
+        Assert.assertNull(state.table("absent"));
+    }
+
+    @Test
+    public void testExpiringMap() throws Exception {
+        ExpiringMap<String, String> map = new StateStore().expiringMap("tokens", 50);
+        map.put("short", "1");
+        map.put("long", "2", 60000);
+        Assert.assertEquals("1", map.get("short"));
+        Thread.sleep(100);
+        Assert.assertNull(map.get("short"));
+        Assert.assertEquals("2", map.get("long"));
+        map.put("short", "1", 0);
+        map.expire();
+        Assert.assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testOffHeapMap() {
+        OffHeapMap map = new StateStore().offHeapMap("blobs");
+        map.put("a", new byte[]{1, 2, 3});
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, map.get("a"));
+        Assert.assertArrayEquals(new byte[]{1, 2, 3}, map.get("a"));
+        Assert.assertNull(map.get("b"));
+        Assert.assertTrue(map.remove("a"));
+        Assert.assertEquals(0, map.size());
+    }
+
+    @Test
+    public void testOffHeapMapCompaction() {
+        OffHeapMap map = new OffHeapMap(64);
+        for (int i = 0; i < 1000; i++) {
+            map.put("key" + i % 10, new byte[]{(byte) i, (byte) (i >> 8), 3});
+        }
+        map.remove("key0");
+        Assert.assertEquals(9, map.size());
+        for (int i = 1; i < 10; i++) {
+            Assert.assertArrayEquals(new byte[]{(byte) (990 + i), (byte) ((990 + i) >> 8), 3}, map.get("key" + i));
+        }
+        //the replaced values don't increase the memory
+        Assert.assertTrue(map.getCapacity() <= 4 * 64);
+    }
+
+    @Test
+    public void testMappedTable() throws Exception {
+        Path file = Files.createTempFile("table", ".tsv");
+        Files.write(file, "a\t1\nkey\tvalue with\ttab\r\nwithout separator\na\tduplicate\nпривет\tмир"
+                .getBytes(StandardCharsets.UTF_8));
+        StateStore state = new StateStore();
+        state.loadTable("table", file);
+        MappedTable table = state.table("table");
+        Assert.assertEquals(3, table.size());
+        Assert.assertEquals("1", table.get("a"));
+        Assert.assertEquals("value with\ttab", table.get("key"));
+        Assert.assertEquals("мир", table.get("привет"));
+        Assert.assertNull(table.get("without separator"));
+        Assert.assertNull(table.get("ke"));
+    }
+
+    @Test
+    public void testScriptAccess() {
+        StateStore state = new StateStore();
+        for (int i = 0; i < 2; i++) {
+            //the new compiled script sees the same state
+            Binding binding = new Binding();
+            binding.setVariable("state", state);
+            InvokerHelper.createScript(
+                    Server.compileGroovyScript("state.counter('calls').increment()", 0), binding).run();
+        }
+        Assert.assertEquals(2, state.counter("calls").sum());
+    }
+}
@@ -0,0 +1,197 @@
+package kilimandjaro;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class TrafficCaptureTest {
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        Path file = Files.createTempFile("traffic", ".capture");
+        //the small chunk makes the remapping of file
+        try (TrafficCapture capture = new TrafficCapture(file, 64)) {
+            for (int i = 0; i < 100; i++) {
+                capture.append(i % 3, ("request " + i).getBytes(StandardCharsets.UTF_8));
+            }
+            capture.append(7, new byte[200]);
+        }
+        //the records are split between chunks of reading, the large record is larger than chunk
+        List<TrafficCapture.Record> records = TrafficCapture.read(file, 50);
+        Assert.assertEquals(101, records.size());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(i % 3, records.get(i).getConnectionId());
+            Assert.assertEquals("request " + i, new String(records.get(i).getData(), StandardCharsets.UTF_8));
+            if (i > 0) {
+                Assert.assertTrue(records.get(i).getTime() >= records.get(i - 1).getTime());
+            }
+        }
+        Assert.assertEquals(200, records.get(100).getData().length);
+    }
+
+    @Test
+    public void testAppendAfterClose() throws Exception {
+        Path file = Files.createTempFile("traffic", ".capture");
+        TrafficCapture capture = new TrafficCapture(file, 64);
+        capture.append(1, new byte[]{1});
+        capture.close();
+        //the selector can still append after the closing of server
+        capture.append(1, new byte[]{2});
+        capture.close();
+        Assert.assertEquals(1, TrafficCapture.read(file).size());
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        Path file = Files.createTempFile("traffic", ".capture");
+        try (TrafficCapture capture = new TrafficCapture(file)) {
+            for (int i = 0; i < 10; i++) {
+                capture.append(i % 2, new byte[]{(byte) i});
+            }
+        }
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            Thread echo = new Thread(() -> {
+                for (int i = 0; i < 2; i++) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        Thread thread = new Thread(() -> {
+                            try (InputStream in = socket.getInputStream(); OutputStream out = socket.getOutputStream()) {
+                                int b;
+                                while ((b = in.read()) >= 0) {
+                                    out.write(b);
+                                    out.flush();
+                                }
+                            } catch (Exception ignored) {
+                            }
+                        });
+                        thread.setDaemon(true);
+                        thread.start();
+                    } catch (Exception ignored) {
+                    }
+                }
+            });
+            echo.setDaemon(true);
+            echo.start();
+
+            TrafficReplay replay = new TrafficReplay(TrafficCapture.read(file));
+            replay.setServerAddress("localhost", serverSocket.getLocalPort());
+            replay.setSpeed(0);
+            TrafficReplay.Result result = replay.replay();
+            Assert.assertEquals(10, result.getFrames());
+            Assert.assertEquals(10, result.getAnswers());
+            Assert.assertTrue(result.getThroughput() > 0);
+        }
+    }
+
+    @Test
+    public void testReplayWithLostAnswer() throws Exception {
+        Path file = Files.createTempFile("traffic", ".capture");
+        try (TrafficCapture capture = new TrafficCapture(file)) {
+            for (int i = 0; i < 5; i++) {
+                capture.append(1, new byte[]{(byte) i});
+            }
+        }
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            //the request 2 is answered too late, the connection is opened again
+            Thread echo = new Thread(() -> {
+                while (true) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        Thread thread = new Thread(() -> {
+                            try (InputStream in = socket.getInputStream(); OutputStream out = socket.getOutputStream()) {
+                                int b;
+                                while ((b = in.read()) >= 0) {
+                                    if (b == 2) {
+                                        Thread.sleep(500);
+                                    }
+                                    out.write(b);
+                                    out.flush();
+                                }
+                            } catch (Exception ignored) {
+                            }
+                        });
+                        thread.setDaemon(true);
+                        thread.start();
+                    } catch (Exception ignored) {
+                        return;
+                    }
+                }
+            });
+            echo.setDaemon(true);
+            echo.start();
+
+            TrafficReplay replay = new TrafficReplay(TrafficCapture.read(file));
+            replay.setServerAddress("localhost", serverSocket.getLocalPort());
+            replay.setSpeed(0);
+            replay.setResponseTimeout(200);
+            TrafficReplay.Result result = replay.replay();
+            Assert.assertEquals(4, result.getAnswers());
+            Assert.assertEquals(1, result.getLost());
+            //the late answer is not taken for the answer to the next request
+            Assert.assertTrue(result.getPercentile(100) < 200_000);
+        }
+    }
+
+    @Test
+    public void testReplayWithLargeAnswer() throws Exception {
+        Path file = Files.createTempFile("traffic", ".capture");
+        int size = 300 * 1024;
+        try (TrafficCapture capture = new TrafficCapture(file)) {
+            for (int i = 0; i < 4; i++) {
+                capture.append(1, new byte[size]);
+            }
+        }
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            //only the first request is answered, its answer is sent by parts
+            AtomicBoolean answered = new AtomicBoolean();
+            Thread server = new Thread(() -> {
+                while (true) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        Thread thread = new Thread(() -> {
+                            try (InputStream in = socket.getInputStream(); OutputStream out = socket.getOutputStream()) {
+                                byte[] request = new byte[size];
+                                while (in.read(request) >= 0) {
+                                    if (answered.compareAndSet(false, true)) {
+                                        //the parts of answer are received by separate reads
+                                        for (int i = 0; i < 4; i++) {
+                                            out.write(new byte[size / 4]);
+                                            out.flush();
+                                            Thread.sleep(50);
+                                        }
+                                    }
+                                }
+                            } catch (Exception ignored) {
+                            }
+                        });
+                        thread.setDaemon(true);
+                        thread.start();
+                    } catch (Exception ignored) {
+                        return;
+                    }
+                }
+            });
+            server.setDaemon(true);
+            server.start();
+
+            TrafficReplay replay = new TrafficReplay(TrafficCapture.read(file));
+            replay.setServerAddress("localhost", serverSocket.getLocalPort());
+            replay.setSpeed(0);
+            replay.setResponseTimeout(200);
+            replay.setAnswerSize(size);
+            TrafficReplay.Result result = replay.replay();
+            //the chunks of the first answer are not taken for the answers to the next requests
+            Assert.assertEquals(1, result.getAnswers());
+            Assert.assertEquals(3, result.getLost());
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package kilimandjaro;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class WorkSchedulerTest {
+
+    @Test
+    public void testOrderOfConnection() throws Exception {
+        int connections = 64;
+        int requests = 2000;
+        Map<Long, Integer> last = new ConcurrentHashMap<>();
+        AtomicBoolean ordered = new AtomicBoolean(true);
+        CountDownLatch done = new CountDownLatch(connections * requests);
+        try (WorkScheduler scheduler = new WorkScheduler(4, 4, Integer.MAX_VALUE, frames -> {
+            for (Frame frame : frames) {
+                int number = ByteBuffer.wrap(frame.getData()).getInt();
+                Integer previous = last.put(frame.getConnection().getId(), number);
+                if (number != (previous == null ? 0 : previous + 1)) {
+                    ordered.set(false);
+                }
+                done.countDown();
+            }
+        })) {
+            scheduler.start();
+            List<Connection> list = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                list.add(new Connection(i, null, null));
+            }
+            for (int i = 0; i < requests; i++) {
+                for (Connection connection : list) {
+                    Assert.assertTrue(scheduler.submit(
+                            new Frame(connection, ByteBuffer.allocate(4).putInt(i).array(), 0)));
+                }
+            }
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+        Assert.assertTrue(ordered.get());
+    }
+
+    @Test
+    public void testQuarantineKeepsOrder() throws Exception {
+        List<Integer> processed = new ArrayList<>();
+        List<String> threads = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(100);
+        try (WorkScheduler scheduler = new WorkScheduler(2, 2, 1000, frames -> {
+            for (Frame frame : frames) {
+                synchronized (processed) {
+                    processed.add(ByteBuffer.wrap(frame.getData()).getInt());
+                    threads.add(Thread.currentThread().getName());
+                }
+                done.countDown();
+            }
+        })) {
+            scheduler.start();
+            Connection connection = new Connection(1, null, null);
+            for (int i = 0; i < 100; i++) {
+                if (i == 50) {
+                    connection.setQuarantined(true);
+                }
+                Assert.assertTrue(scheduler.submit(new Frame(connection, ByteBuffer.allocate(4).putInt(i).array(), 0)));
+            }
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        }
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(i, (int) processed.get(i));
+        }
+        Assert.assertEquals("quarantine-worker", threads.get(99));
+    }
+
+    @Test
+    public void testCapacityAndGrowth() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try (WorkScheduler scheduler = new WorkScheduler(1, 3, 4, frames -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        })) {
+            scheduler.setAdjustPeriod(20);
+            scheduler.start();
+            int accepted = 0;
+            for (int i = 0; i < 10; i++) {
+                if (scheduler.submit(new Frame(new Connection(i, null, null), new byte[1], 0))) {
+                    accepted++;
+                }
+            }
+            //the worker may have taken the first request before the queue is full
+            Assert.assertTrue(accepted == 4 || accepted == 5);
+            //the waiting requests increase the delay of queue
+            Thread.sleep(300);
+            Assert.assertTrue(scheduler.getActiveWorkers() > 1);
+            release.countDown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTargetDelay() {
+        //the target delay is the divisor of the measured delay
+        try (WorkScheduler scheduler = new WorkScheduler(1, 2, 10, frames -> {
+        })) {
+            scheduler.setTargetDelay(0);
+        }
+    }
+}